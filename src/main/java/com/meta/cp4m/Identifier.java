@@ -8,18 +8,49 @@
 
 package com.meta.cp4m;
 
+import com.google.common.base.Preconditions;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.UUID;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.jetbrains.annotations.NotNull;
 
+/**
+ * An id of a page, user, message or conversation.
+ *
+ * <p>Most ids Meta hands out are numbers, those are held as a {@code long} whether they were
+ * created from a number or from its decimal string. Anything else is held as UTF-8 bytes. The hash
+ * is computed once, and ids are ordered by their UTF-8 bytes without converting either to a string.
+ */
 public class Identifier implements Comparable<Identifier> {
 
-  private final byte[] id;
+  /** powers of ten up to the largest that fits in a long */
+  private static final long[] POWERS_OF_TEN = new long[19];
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  /** the UTF-8 bytes of the id, null when the id is held in {@link #number} */
+  private final byte @Nullable [] id;
+
+  private final long number;
+  private final int hash;
 
   private Identifier(byte[] id) {
     this.id = id;
+    this.number = 0;
+    this.hash = Arrays.hashCode(id);
+  }
+
+  private Identifier(long number) {
+    this.id = null;
+    this.number = number;
+    this.hash = Long.hashCode(number);
   }
 
   public static Identifier random() {
@@ -28,16 +59,129 @@ public class Identifier implements Comparable<Identifier> {
   }
 
   public static Identifier from(String id) {
-    return new Identifier(id.getBytes(StandardCharsets.UTF_8));
+    @Nullable Identifier number = parseNumber(id);
+    return number != null ? number : new Identifier(id.getBytes(StandardCharsets.UTF_8));
   }
 
   public static Identifier from(long id) {
-    return new Identifier(Long.toString(id).getBytes(StandardCharsets.UTF_8));
+    return new Identifier(id);
+  }
+
+  /**
+   * @param first the start of the new id
+   * @param separator an ASCII character placed between the two, not a digit or '-'
+   * @param second the end of the new id
+   * @return the id {@code first + separator + second}
+   */
+  public static Identifier join(Identifier first, char separator, Identifier second) {
+    // a digit or '-' could join two ids into a number, which has to be held as a long
+    Preconditions.checkArgument(
+        separator < 0x80 && separator != '-' && (separator < '0' || separator > '9'),
+        "separator must be an ASCII character that is not a digit or '-'");
+    int firstLength = first.length();
+    byte[] joined = new byte[firstLength + 1 + second.length()];
+    first.copyTo(joined, 0);
+    joined[firstLength] = (byte) separator;
+    second.copyTo(joined, firstLength + 1);
+    return new Identifier(joined);
+  }
+
+  /**
+   * Checks an id against {@link #join} without building the joined id.
+   *
+   * @return true if this id equals {@code join(first, separator, second)}
+   */
+  public boolean isJoin(Identifier first, char separator, Identifier second) {
+    // a joined id always has a separator that is not a digit, so it is never a number
+    if (id == null) {
+      return false;
+    }
+    int firstLength = first.length();
+    int secondLength = second.length();
+    if (id.length != firstLength + 1 + secondLength || id[firstLength] != (byte) separator) {
+      return false;
+    }
+    for (int i = 0; i < firstLength; i++) {
+      if (id[i] != first.byteAt(i, firstLength)) {
+        return false;
+      }
+    }
+    for (int i = 0; i < secondLength; i++) {
+      if (id[firstLength + 1 + i] != second.byteAt(i, secondLength)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the id as a number if the string is exactly how {@link Long#toString(long)} would
+   *     print it, null otherwise
+   */
+  private static @Nullable Identifier parseNumber(String id) {
+    int length = id.length();
+    boolean negative = length > 0 && id.charAt(0) == '-';
+    int start = negative ? 1 : 0;
+    int digits = length - start;
+    if (digits < 1 || digits > 19 || (id.charAt(start) == '0' && (digits > 1 || negative))) {
+      return null;
+    }
+    // accumulated as a negative number so that Long.MIN_VALUE fits
+    long value = 0;
+    for (int i = start; i < length; i++) {
+      int digit = id.charAt(i) - '0';
+      if (digit < 0 || digit > 9 || value < (Long.MIN_VALUE + digit) / 10) {
+        return null;
+      }
+      value = value * 10 - digit;
+    }
+    if (negative) {
+      return new Identifier(value);
+    }
+    return value == Long.MIN_VALUE ? null : new Identifier(-value);
+  }
+
+  /** @return the number of decimal digits in the number, ignoring the sign */
+  private int digits() {
+    long magnitude = number < 0 ? number : -number;
+    int digits = 1;
+    while (digits < POWERS_OF_TEN.length && magnitude <= -POWERS_OF_TEN[digits]) {
+      digits++;
+    }
+    return digits;
+  }
+
+  /** @return the number of UTF-8 bytes in the id */
+  private int length() {
+    if (id != null) {
+      return id.length;
+    }
+    return number < 0 ? digits() + 1 : digits();
+  }
+
+  private void copyTo(byte[] destination, int offset) {
+    if (id != null) {
+      System.arraycopy(id, 0, destination, offset, id.length);
+      return;
+    }
+    int length = length();
+    for (int i = 0; i < length; i++) {
+      destination[offset + i] = numberByteAt(i, length);
+    }
+  }
+
+  /** @return the character at {@code index} of the number's decimal string, as a byte */
+  private byte numberByteAt(int index, int length) {
+    if (number < 0 && index == 0) {
+      return '-';
+    }
+    long magnitude = number < 0 ? number : -number;
+    return (byte) ('0' - magnitude / POWERS_OF_TEN[length - 1 - index] % 10);
   }
 
   @Override
   public String toString() {
-    return new String(id, StandardCharsets.UTF_8);
+    return id != null ? new String(id, StandardCharsets.UTF_8) : Long.toString(number);
   }
 
   @Override
@@ -45,17 +189,32 @@ public class Identifier implements Comparable<Identifier> {
     if (this == o) return true;
     if (o == null || getClass() != o.getClass()) return false;
     Identifier that = (Identifier) o;
-    return Arrays.equals(id, that.id);
+    return hash == that.hash && number == that.number && Arrays.equals(id, that.id);
   }
 
   @Override
   public int hashCode() {
-    return Arrays.hashCode(id);
+    return hash;
   }
 
   @Override
   public int compareTo(@NotNull Identifier o) {
     Objects.requireNonNull(o);
-    return toString().compareTo(o.toString());
+    if (id != null && o.id != null) {
+      return Arrays.compareUnsigned(id, o.id);
+    }
+    int length = length();
+    int otherLength = o.length();
+    for (int i = 0; i < Math.min(length, otherLength); i++) {
+      int compared = Byte.compareUnsigned(byteAt(i, length), o.byteAt(i, otherLength));
+      if (compared != 0) {
+        return compared;
+      }
+    }
+    return Integer.compare(length, otherLength);
+  }
+
+  private byte byteAt(int index, int length) {
+    return id != null ? id[index] : numberByteAt(index, length);
   }
 }
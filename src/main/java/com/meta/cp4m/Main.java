@@ -46,6 +46,8 @@ public class Main {
   public static void main(String[] strings) throws IOException {
     Path configurationFile = configurationFile(strings);
     RootConfiguration configuration = ConfigurationUtils.loadConfigurationFile(configurationFile);
-    configuration.toServicesRunner().start();
+    ServicesRunner runner = configuration.toServicesRunner().start();
+    // lets the log store write what it has been given before the process exits
+    Runtime.getRuntime().addShutdownHook(new Thread(runner::close, "cp4m-shutdown"));
   }
 }
@@ -8,47 +8,374 @@
 
 package com.meta.cp4m;
 
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.meta.cp4m.llm.LLMPlugin;
 import com.meta.cp4m.message.Message;
+import com.meta.cp4m.message.Message.Role;
 import com.meta.cp4m.message.MessageHandler;
+import com.meta.cp4m.message.TextChunker;
 import com.meta.cp4m.message.ThreadState;
 import com.meta.cp4m.store.ChatStore;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.ServiceUnavailableResponse;
 import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.common.returnsreceiver.qual.This;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class Service<T extends Message> {
+public class Service<T extends Message> implements AutoCloseable {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(Service.class);
-  private final ExecutorService executorService = Executors.newCachedThreadPool();
+
+  /** how long closing waits for the ingest workers to finish the requests they have taken */
+  private static final Duration INGEST_SHUTDOWN_TIMEOUT = Duration.ofSeconds(5);
+
+  /**
+   * Wakes up debounced conversations. Every waiting conversation is a single entry in the
+   * scheduler's queue so one thread is enough for all services.
+   */
+  private static final ScheduledExecutorService DEBOUNCE_SCHEDULER =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("cp4m-debounce-%d").setDaemon(true).build());
+
+  private final ServiceExecutor executor;
   private final MessageHandler<T> handler;
   private final ChatStore<T> store;
   private final LLMPlugin<T> llmPlugin;
 
+  /**
+   * A conversation has a mailbox in this map for as long as it has work scheduled or running. All
+   * changes to a mailbox happen inside {@link ConcurrentHashMap#compute} for its thread id so there
+   * is never more than one task working on a conversation.
+   */
+  private final ConcurrentHashMap<Identifier, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
   private final String path;
+  private long debounceNanos = 0;
+  private int replayMaxConcurrency = 0;
+  private double replayPerSecond = 1;
+  private Duration replayMaxAge = Duration.ofHours(24);
+  private @Nullable BlockingQueue<Callable<List<T>>> ingestQueue;
+  private @Nullable ExecutorService ingestPool;
+  private int ingestCapacity = 0;
+  private int ingestWorkers = 0;
 
   public Service(
       ChatStore<T> store, MessageHandler<T> handler, LLMPlugin<T> llmPlugin, String path) {
+    this(store, handler, llmPlugin, path, ServiceExecutor.virtual());
+  }
+
+  public Service(
+      ChatStore<T> store,
+      MessageHandler<T> handler,
+      LLMPlugin<T> llmPlugin,
+      String path,
+      ServiceExecutor executor) {
     this.handler = Objects.requireNonNull(handler);
     this.store = Objects.requireNonNull(store);
     this.llmPlugin = llmPlugin;
     this.path = path;
+    this.executor = Objects.requireNonNull(executor);
   }
 
   void handle(Context ctx) {
+    @Nullable BlockingQueue<Callable<List<T>>> queue = ingestQueue;
+    if (queue != null && ctx.handlerType() == HandlerType.POST) {
+      if (!queue.offer(handler.accept(ctx))) {
+        // the messaging service retries requests that fail, so nothing is lost
+        LOGGER.warn("ingest queue for {} is full, rejecting request", path);
+        throw new ServiceUnavailableResponse("Too many requests waiting to be processed");
+      }
+      return;
+    }
     List<T> messages = handler.processRequest(ctx);
-    // TODO: once we have a non-volatile store, on startup send stored but not replied to messages
     for (T m : messages) {
-      ThreadState<T> thread = store.add(m);
-      executorService.submit(() -> execute(thread));
+      enqueue(m);
     }
   }
 
+  private void enqueue(T message) {
+    mailboxes.compute(
+        message.threadId(),
+        (threadId, mailbox) -> {
+          ThreadState<T> thread = store.add(message);
+          boolean created = mailbox == null;
+          if (created) {
+            mailbox = new Mailbox(threadId);
+          }
+          if (message.role() == Role.USER) {
+            mailbox.deadline = System.nanoTime() + debounceNanos;
+          }
+          // only the latest state is kept, queued messages are answered by a single LLM call
+          mailbox.pending = thread;
+          if (created) {
+            mailbox.schedule();
+          }
+          return mailbox;
+        });
+  }
+
+  /**
+   * Wait until no new user message has arrived in a conversation for this long before sending it
+   * to the LLM, so that a message sent in fragments is answered once. Zero, the default, disables
+   * the wait.
+   *
+   * @param debounce how long a conversation must be quiet before it is answered
+   * @return this
+   */
+  public @This Service<T> debounce(Duration debounce) {
+    Preconditions.checkArgument(!debounce.isNegative(), "debounce cannot be negative");
+    this.debounceNanos = debounce.toNanos();
+    return this;
+  }
+
+  public Duration debounce() {
+    return Duration.ofNanos(debounceNanos);
+  }
+
+  /**
+   * Acknowledge POST requests as soon as they have been verified and leave parsing them and adding
+   * their messages to the store to a pool of workers, so that a slow store or a burst of requests
+   * does not hold up the response to the messaging service. Each worker takes one request at a
+   * time and adds its messages to the store one by one, a store that group commits its writes,
+   * such as {@link com.meta.cp4m.store.LogStore}, shares a commit between the workers that write
+   * at the same time. When the queue is full requests are rejected with a 503 and the messaging
+   * service sends them again later. A request that cannot be parsed is logged and dropped since
+   * it has already been acknowledged. The workers belong to this service
+   * and are stopped by {@link #close()}, requests still in the queue at that point are lost.
+   *
+   * @param capacity the number of accepted requests that can wait to be processed, zero processes
+   *     every request before it is answered
+   * @param workers the number of threads processing accepted requests
+   * @return this
+   */
+  public @This Service<T> ingest(int capacity, int workers) {
+    Preconditions.checkArgument(capacity >= 0, "capacity cannot be negative");
+    Preconditions.checkArgument(workers > 0, "workers must be greater than zero");
+    Preconditions.checkState(ingestQueue == null, "ingest can only be enabled once");
+    if (capacity == 0) {
+      return this;
+    }
+    BlockingQueue<Callable<List<T>>> queue = new ArrayBlockingQueue<>(capacity);
+    ThreadFactory threads =
+        new ThreadFactoryBuilder()
+            .setNameFormat("cp4m-ingest-" + path + "-%d")
+            .setDaemon(true)
+            .build();
+    // platform threads, a store write inside mailboxes.compute would pin a virtual thread's
+    // carrier for as long as it blocks
+    ExecutorService pool = Executors.newFixedThreadPool(workers, threads);
+    for (int i = 0; i < workers; i++) {
+      pool.execute(() -> ingest(queue));
+    }
+    this.ingestPool = pool;
+    this.ingestCapacity = capacity;
+    this.ingestWorkers = workers;
+    this.ingestQueue = queue;
+    return this;
+  }
+
+  public int ingestCapacity() {
+    return ingestCapacity;
+  }
+
+  public int ingestWorkers() {
+    return ingestWorkers;
+  }
+
+  private void ingest(BlockingQueue<Callable<List<T>>> queue) {
+    while (!Thread.currentThread().isInterrupted()) {
+      Callable<List<T>> accepted;
+      try {
+        accepted = queue.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      try {
+        for (T m : accepted.call()) {
+          enqueue(m);
+        }
+      } catch (Exception e) {
+        LOGGER.error("failed to process an accepted request, it has been dropped", e);
+      }
+    }
+  }
+
+  /**
+   * Answer conversations that were waiting on a response when the service last stopped. Replayed
+   * conversations go through the same path as new messages, at most {@code maxConcurrency} of them
+   * are in flight at once and no more than {@code perSecond} are started each second so that a
+   * restart does not flood the LLM.
+   *
+   * @param maxConcurrency the number of replayed conversations answered at once, zero disables
+   *     replay
+   * @param perSecond the number of replayed conversations started per second
+   * @return this
+   * @see #replayUnanswered()
+   */
+  public @This Service<T> replay(int maxConcurrency, double perSecond) {
+    Preconditions.checkArgument(maxConcurrency >= 0, "maxConcurrency cannot be negative");
+    Preconditions.checkArgument(perSecond > 0, "perSecond must be greater than zero");
+    this.replayMaxConcurrency = maxConcurrency;
+    this.replayPerSecond = perSecond;
+    return this;
+  }
+
+  public int replayMaxConcurrency() {
+    return replayMaxConcurrency;
+  }
+
+  public double replayPerSecond() {
+    return replayPerSecond;
+  }
+
+  /**
+   * Conversations whose last message is older than this are not replayed, the messaging platforms
+   * no longer accept a reply to them. Defaults to 24 hours.
+   *
+   * @param maxAge how old the last message of a replayed conversation can be
+   * @return this
+   */
+  public @This Service<T> replayMaxAge(Duration maxAge) {
+    Preconditions.checkArgument(
+        !maxAge.isNegative() && !maxAge.isZero(), "maxAge must be greater than zero");
+    this.replayMaxAge = maxAge;
+    return this;
+  }
+
+  public Duration replayMaxAge() {
+    return replayMaxAge;
+  }
+
+  /**
+   * Find every conversation in the store whose last message is from the user, and no older than
+   * the {@link #replayMaxAge(Duration) maximum age}, and answer it. A conversation that receives a
+   * new message before it is replayed is answered by that message instead. Conversations the
+   * message handler does not {@link MessageHandler#handles handle} are left to the other services
+   * sharing the store. Does nothing if replay is disabled.
+   *
+   * @return a future that completes once every replayed conversation has been answered
+   */
+  public CompletableFuture<Void> replayUnanswered() {
+    if (replayMaxConcurrency == 0) {
+      return CompletableFuture.completedFuture(null);
+    }
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    // the replay waits on permits so it gets its own thread rather than one of the executor's
+    Thread.ofVirtual()
+        .name("cp4m-replay-" + path)
+        .start(
+            () -> {
+              try {
+                replay();
+                done.complete(null);
+              } catch (Throwable e) {
+                LOGGER.error("failed to replay unanswered conversations", e);
+                done.completeExceptionally(e);
+              }
+            });
+    return done;
+  }
+
+  private void replay() throws InterruptedException {
+    Semaphore permits = new Semaphore(replayMaxConcurrency);
+    RateLimiter rateLimiter = RateLimiter.create(replayPerSecond);
+    Instant oldest = Instant.now().minus(replayMaxAge);
+    int replayed = 0;
+    for (ThreadState<T> thread : store.list()) {
+      // the store may be shared with services on other platforms
+      Message tail = thread.tail();
+      if (tail.role() != Role.USER
+          || tail.timestamp().isBefore(oldest)
+          || !handler.handles(tail)) {
+        continue;
+      }
+      permits.acquire();
+      rateLimiter.acquire();
+      @Nullable CompletableFuture<Void> answered = resume(thread);
+      if (answered == null) {
+        permits.release();
+      } else {
+        replayed++;
+        answered.whenComplete((v, e) -> permits.release());
+      }
+    }
+    // wait for the last conversations to be answered
+    permits.acquire(replayMaxConcurrency);
+    if (replayed > 0) {
+      LOGGER.info("replayed {} unanswered conversations", replayed);
+    }
+  }
+
+  /**
+   * Queue a stored conversation to be answered without adding a message to it.
+   *
+   * @return a future that completes when the conversation has nothing left to answer, or null if
+   *     the conversation already has work queued
+   */
+  private @Nullable CompletableFuture<Void> resume(ThreadState<T> thread) {
+    Mailbox resumed = new Mailbox(thread.tail().threadId());
+    resumed.pending = thread;
+    Mailbox mailbox =
+        mailboxes.computeIfAbsent(
+            resumed.threadId,
+            threadId -> {
+              resumed.schedule();
+              return resumed;
+            });
+    return mailbox == resumed ? resumed.removed : null;
+  }
+
+  /**
+   * Stop the ingest workers and the executor. The webhook should no longer be served by the time
+   * this is called, the workers finish the requests they have already taken and the rest of the
+   * queue is dropped. The store is left open since other services may share it, see {@link
+   * ServicesRunner#close()}.
+   */
+  @Override
+  public void close() {
+    @Nullable ExecutorService pool = ingestPool;
+    if (pool != null) {
+      // interrupts the workers waiting on the queue, a worker that is busy stops after its request
+      pool.shutdownNow();
+      try {
+        if (!pool.awaitTermination(INGEST_SHUTDOWN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+          LOGGER.warn("ingest workers for {} did not stop in time", path);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    executor.close();
+  }
+
+  public ChatStore<T> store() {
+    return store;
+  }
+
   public void register(Javalin app) {
     handler.handlers().forEach(m -> app.addHandler(m, path, this::handle));
   }
@@ -61,22 +388,158 @@ public class Service<T extends Message> {
     return this.handler;
   }
 
-  private void execute(ThreadState<T> thread) {
-    T llmResponse;
+  private CompletableFuture<T> execute(ThreadState<T> thread, Consumer<String> onText) {
     try {
-      llmResponse = llmPlugin.handle(thread);
-    } catch (IOException e) {
-      LOGGER.error("failed to communicate with LLM", e);
-      return;
+      return llmPlugin.handleStreaming(thread, onText);
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
     }
-    store.add(llmResponse);
-    try {
-      handler.respond(llmResponse);
-    } catch (Exception e) {
-      // we log in the handler where we have the body context
-      // TODO: create transactional store add
-      // TODO: implement retry with exponential backoff
-      LOGGER.error("an error occurred while attempting to respond", e);
+  }
+
+  /**
+   * Holds the work waiting for a single conversation. While a mailbox exists it either has a
+   * {@link #drain} task queued or waiting on the LLM, or a {@link #wake} armed, never both.
+   */
+  private final class Mailbox {
+    private final Identifier threadId;
+    private @Nullable ThreadState<T> pending;
+    private @Nullable ThreadState<T> next;
+    private long deadline = System.nanoTime();
+    private CompletableFuture<Void> sent = CompletableFuture.completedFuture(null);
+    private final CompletableFuture<Void> removed = new CompletableFuture<>();
+
+    private Mailbox(Identifier threadId) {
+      this.threadId = threadId;
+    }
+
+    /**
+     * Sends the latest pending state to the LLM without waiting for it. Once the response arrives
+     * it is stored and sent, then another drain is queued to pick up anything that came in while
+     * the LLM was working. If the plugin streams its response each paragraph is sent as soon as it
+     * is complete.
+     *
+     * @return a future that completes when the response has been stored
+     */
+    private CompletableFuture<Void> drain() {
+      @Nullable ThreadState<T> thread = takePending();
+      if (thread == null) {
+        return CompletableFuture.completedFuture(null);
+      }
+      TextChunker.Incremental chunker = handler.textChunker().incremental();
+      AtomicBoolean streamed = new AtomicBoolean(false);
+      return execute(
+              thread,
+              text -> {
+                streamed.set(true);
+                chunker.append(text).forEach(chunk -> respond(thread, chunk));
+              })
+          // the LLM future completes on an HTTP client I/O thread, which must not wait on the
+          // store, and the store write blocks inside mailboxes.compute so needs a platform thread
+          .thenAcceptAsync(
+              llmResponse -> {
+                store(llmResponse);
+                if (streamed.get()) {
+                  chunker.finish().forEach(chunk -> respond(thread, chunk));
+                } else {
+                  respond(llmResponse);
+                }
+              },
+              executor.continuations())
+          .exceptionally(
+              e -> {
+                Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                if (cause instanceof IOException) {
+                  LOGGER.error("failed to communicate with LLM", cause);
+                } else {
+                  LOGGER.error("an error occurred while processing thread " + threadId, cause);
+                }
+                return null;
+              })
+          .thenRun(() -> executor.executeAsync(this::drain));
+    }
+
+    private void respond(ThreadState<T> thread, String chunk) {
+      respond(thread.newMessageFromBot(Instant.now(), chunk));
+    }
+
+    private void respond(T llmResponse) {
+      // the send happens off this thread but a response is only sent once the previous one has
+      // been delivered so that they arrive in order
+      sent =
+          sent.thenCompose(v -> handler.respond(llmResponse))
+              .exceptionally(
+                  e -> {
+                    // we log in the handler where we have the body context
+                    // TODO: create transactional store add
+                    // TODO: implement retry with exponential backoff
+                    LOGGER.error("an error occurred while attempting to respond", e);
+                    return null;
+                  });
+    }
+
+    private void store(T llmResponse) {
+      mailboxes.compute(
+          threadId,
+          (k, mailbox) -> {
+            ThreadState<T> thread = store.add(llmResponse);
+            if (pending != null) {
+              // messages that came in while waiting on the LLM are answered with the response
+              // already in the context
+              pending = thread;
+            }
+            return this;
+          });
+    }
+
+    /** Only call from within {@code mailboxes.compute} for this mailbox */
+    private void schedule() {
+      long remaining = deadline - System.nanoTime();
+      if (remaining > 0) {
+        DEBOUNCE_SCHEDULER.schedule(this::wake, remaining, TimeUnit.NANOSECONDS);
+      } else {
+        executor.executeAsync(this::drain);
+      }
+    }
+
+    private void wake() {
+      // the deadline may have moved since this was scheduled, schedule checks again
+      mailboxes.compute(
+          threadId,
+          (k, mailbox) -> {
+            schedule();
+            return this;
+          });
+    }
+
+    /**
+     * @return the latest pending state or null if there is none, in which case this mailbox is
+     *     removed. Also null when the pending state is still inside its debounce window, in that
+     *     case a wake up is scheduled.
+     */
+    private @Nullable ThreadState<T> takePending() {
+      AtomicBoolean emptied = new AtomicBoolean(false);
+      mailboxes.compute(
+          threadId,
+          (k, mailbox) -> {
+            if (pending == null) {
+              emptied.set(true);
+              return null;
+            }
+            if (deadline - System.nanoTime() > 0) {
+              schedule();
+              return this;
+            }
+            next = pending;
+            pending = null;
+            return this;
+          });
+      if (emptied.get()) {
+        // completed outside of compute so callbacks never run while holding the map lock
+        removed.complete(null);
+      }
+      @Nullable ThreadState<T> thread = next;
+      next = null;
+      return thread;
     }
   }
 }
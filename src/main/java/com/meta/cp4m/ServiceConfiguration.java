@@ -11,20 +11,45 @@ package com.meta.cp4m;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Preconditions;
+import com.meta.cp4m.ServiceExecutor.ThreadType;
+import java.time.Duration;
 import java.util.Objects;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 public class ServiceConfiguration {
+  private static final int DEFAULT_REPLAY_MAX_CONCURRENCY = 8;
+  private static final double DEFAULT_REPLAY_PER_SECOND = 5;
+  // the messaging platforms only allow a reply within 24 hours of the user's last message
+  private static final long DEFAULT_REPLAY_MAX_AGE_HOURS = 24;
+  private static final int DEFAULT_INGEST_WORKERS = 2;
+
   private final String webhookPath;
   private final String handler;
   private final String store;
   private final String plugin;
+  private final ThreadType threadType;
+  private final @Nullable Integer maxConcurrency;
+  private final Duration debounce;
+  private final int replayMaxConcurrency;
+  private final double replayPerSecond;
+  private final Duration replayMaxAge;
+  private final int ingestQueueCapacity;
+  private final int ingestWorkers;
 
   @JsonCreator
   ServiceConfiguration(
       @JsonProperty("webhook_path") String webhookPath,
       @JsonProperty("handler") String handler,
       @JsonProperty("store") String store,
-      @JsonProperty("plugin") String plugin) {
+      @JsonProperty("plugin") String plugin,
+      @JsonProperty("thread_type") @Nullable ThreadType threadType,
+      @JsonProperty("max_concurrency") @Nullable Integer maxConcurrency,
+      @JsonProperty("debounce_ms") @Nullable Long debounceMs,
+      @JsonProperty("replay_max_concurrency") @Nullable Integer replayMaxConcurrency,
+      @JsonProperty("replay_per_second") @Nullable Double replayPerSecond,
+      @JsonProperty("replay_max_age_hours") @Nullable Long replayMaxAgeHours,
+      @JsonProperty("ingest_queue_capacity") @Nullable Integer ingestQueueCapacity,
+      @JsonProperty("ingest_workers") @Nullable Integer ingestWorkers) {
     Preconditions.checkArgument(
         webhookPath != null && webhookPath.startsWith("/"),
         "webhook_path must be present and it must start with a forward slash (/)");
@@ -32,6 +57,35 @@ public class ServiceConfiguration {
     this.handler = Objects.requireNonNull(handler, "handler must be present");
     this.store = Objects.requireNonNull(store, "store must be present");
     this.plugin = Objects.requireNonNull(plugin, "plugin must be present");
+    Preconditions.checkArgument(
+        maxConcurrency == null || maxConcurrency > 0, "max_concurrency must be greater than zero");
+    this.threadType = threadType == null ? ThreadType.VIRTUAL : threadType;
+    this.maxConcurrency = maxConcurrency;
+    Preconditions.checkArgument(
+        debounceMs == null || debounceMs >= 0, "debounce_ms must be greater than or equal to zero");
+    this.debounce = debounceMs == null ? Duration.ZERO : Duration.ofMillis(debounceMs);
+    Preconditions.checkArgument(
+        replayMaxConcurrency == null || replayMaxConcurrency >= 0,
+        "replay_max_concurrency must be greater than or equal to zero");
+    this.replayMaxConcurrency =
+        replayMaxConcurrency == null ? DEFAULT_REPLAY_MAX_CONCURRENCY : replayMaxConcurrency;
+    Preconditions.checkArgument(
+        replayPerSecond == null || replayPerSecond > 0,
+        "replay_per_second must be greater than zero");
+    this.replayPerSecond = replayPerSecond == null ? DEFAULT_REPLAY_PER_SECOND : replayPerSecond;
+    Preconditions.checkArgument(
+        replayMaxAgeHours == null || replayMaxAgeHours > 0,
+        "replay_max_age_hours must be greater than zero");
+    this.replayMaxAge =
+        Duration.ofHours(
+            replayMaxAgeHours == null ? DEFAULT_REPLAY_MAX_AGE_HOURS : replayMaxAgeHours);
+    Preconditions.checkArgument(
+        ingestQueueCapacity == null || ingestQueueCapacity >= 0,
+        "ingest_queue_capacity must be greater than or equal to zero");
+    this.ingestQueueCapacity = ingestQueueCapacity == null ? 0 : ingestQueueCapacity;
+    Preconditions.checkArgument(
+        ingestWorkers == null || ingestWorkers > 0, "ingest_workers must be greater than zero");
+    this.ingestWorkers = ingestWorkers == null ? DEFAULT_INGEST_WORKERS : ingestWorkers;
   }
 
   public String webhookPath() {
@@ -49,4 +103,40 @@ public class ServiceConfiguration {
   public String plugin() {
     return plugin;
   }
+
+  public ThreadType threadType() {
+    return threadType;
+  }
+
+  public @Nullable Integer maxConcurrency() {
+    return maxConcurrency;
+  }
+
+  public Duration debounce() {
+    return debounce;
+  }
+
+  public int replayMaxConcurrency() {
+    return replayMaxConcurrency;
+  }
+
+  public double replayPerSecond() {
+    return replayPerSecond;
+  }
+
+  public Duration replayMaxAge() {
+    return replayMaxAge;
+  }
+
+  public int ingestQueueCapacity() {
+    return ingestQueueCapacity;
+  }
+
+  public int ingestWorkers() {
+    return ingestWorkers;
+  }
+
+  public ServiceExecutor toExecutor() {
+    return ServiceExecutor.of(threadType, maxConcurrency);
+  }
 }
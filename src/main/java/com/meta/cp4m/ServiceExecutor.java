@@ -0,0 +1,194 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Runs the work a {@link Service} does for each incoming message.
+ *
+ * <p>Tasks either get a virtual thread each or share a pool of platform threads. If a concurrency
+ * limit is set no more than that many tasks run at once, the rest wait their turn in a queue
+ * without holding a thread. Tasks submitted with {@link #executeAsync} count towards the limit
+ * until the work they started completes, so the limit also bounds the number of outstanding LLM
+ * calls when nothing is blocking on them.
+ */
+public class ServiceExecutor implements Executor, AutoCloseable {
+
+  /** continuations may block on the store, with virtual threads they get this many platform ones */
+  private static final int CONTINUATION_THREADS =
+      Math.max(4, Runtime.getRuntime().availableProcessors());
+
+  private final ThreadType threadType;
+  private final @Nullable Integer maxConcurrency;
+  private final ExecutorService executor;
+  private final ExecutorService continuations;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Queue<Supplier<? extends CompletionStage<?>>> waiting = new ArrayDeque<>();
+  private int running = 0;
+
+  private ServiceExecutor(ThreadType threadType, @Nullable Integer maxConcurrency) {
+    Preconditions.checkArgument(
+        maxConcurrency == null || maxConcurrency > 0, "max_concurrency must be greater than zero");
+    this.threadType = threadType;
+    this.maxConcurrency = maxConcurrency;
+    switch (threadType) {
+      case VIRTUAL -> {
+        executor =
+            Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("cp4m-service-", 0).factory());
+        // a virtual thread blocking inside ConcurrentHashMap.compute pins its carrier
+        continuations =
+            Executors.newFixedThreadPool(
+                CONTINUATION_THREADS,
+                new ThreadFactoryBuilder()
+                    .setNameFormat("cp4m-continuation-%d")
+                    .setDaemon(true)
+                    .build());
+      }
+      case PLATFORM -> {
+        ThreadFactory factory =
+            new ThreadFactoryBuilder().setNameFormat("cp4m-service-%d").setDaemon(true).build();
+        executor =
+            maxConcurrency == null
+                ? Executors.newCachedThreadPool(factory)
+                : Executors.newFixedThreadPool(maxConcurrency, factory);
+        continuations = executor;
+      }
+      default -> throw new IllegalArgumentException("Unsupported thread type: " + threadType);
+    }
+  }
+
+  /**
+   * @return an executor that gives every task its own virtual thread with no concurrency limit
+   */
+  public static ServiceExecutor virtual() {
+    return new ServiceExecutor(ThreadType.VIRTUAL, null);
+  }
+
+  /**
+   * @param maxConcurrency the maximum number of tasks allowed to run at once
+   * @return an executor that gives every task its own virtual thread
+   */
+  public static ServiceExecutor virtual(int maxConcurrency) {
+    return new ServiceExecutor(ThreadType.VIRTUAL, maxConcurrency);
+  }
+
+  public static ServiceExecutor of(ThreadType threadType, @Nullable Integer maxConcurrency) {
+    return new ServiceExecutor(threadType, maxConcurrency);
+  }
+
+  public ThreadType threadType() {
+    return threadType;
+  }
+
+  public @Nullable Integer maxConcurrency() {
+    return maxConcurrency;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    executeAsync(
+        () -> {
+          task.run();
+          return CompletableFuture.completedFuture(null);
+        });
+  }
+
+  /**
+   * Run a task that finishes asynchronously. If a concurrency limit is set the task holds its place
+   * until the stage it returns completes, not just while it is running on a thread.
+   *
+   * @param task starts the work and returns a stage that completes when the work is done
+   */
+  public void executeAsync(Supplier<? extends CompletionStage<?>> task) {
+    if (maxConcurrency == null) {
+      executor.execute(task::get);
+      return;
+    }
+    lock.lock();
+    try {
+      if (running >= maxConcurrency) {
+        waiting.add(task);
+        return;
+      }
+      running++;
+    } finally {
+      lock.unlock();
+    }
+    start(task);
+  }
+
+  private void start(Supplier<? extends CompletionStage<?>> task) {
+    executor.execute(
+        () -> {
+          CompletionStage<?> stage;
+          try {
+            stage = task.get();
+          } catch (RuntimeException | Error e) {
+            release();
+            throw e;
+          }
+          stage.whenComplete((v, e) -> release());
+        });
+  }
+
+  /** Hands the finished task's place to the next waiting task, if there is one */
+  private void release() {
+    @Nullable Supplier<? extends CompletionStage<?>> next;
+    lock.lock();
+    try {
+      next = waiting.poll();
+      if (next == null) {
+        running--;
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (next != null) {
+      start(next);
+    }
+  }
+
+  /**
+   * Continuations of a task that already holds its place, such as handling an LLM response, run
+   * here. They do not count towards the concurrency limit again, waiting for a place held by the
+   * same task could never end. Continuations are allowed to block, such as on a store write while
+   * holding a lock, so they always run on platform threads. With virtual threads that is a pool of
+   * its own.
+   *
+   * @return runs tasks on platform threads without a concurrency limit
+   */
+  public Executor continuations() {
+    return continuations;
+  }
+
+  @Override
+  public void close() {
+    executor.shutdown();
+    continuations.shutdown();
+  }
+
+  public enum ThreadType {
+    VIRTUAL,
+    PLATFORM;
+
+    @Override
+    public String toString() {
+      return name().toLowerCase();
+    }
+  }
+}
@@ -9,14 +9,21 @@
 package com.meta.cp4m;
 
 import com.google.common.base.Preconditions;
+import com.meta.cp4m.store.ChatStore;
 import io.javalin.Javalin;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Set;
 import org.checkerframework.common.returnsreceiver.qual.This;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class ServicesRunner implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ServicesRunner.class);
+
   private final Javalin app = Javalin.create();
   private final Set<Service<?>> services = new HashSet<>();
   private boolean started = false;
@@ -32,6 +39,8 @@ public class ServicesRunner implements AutoCloseable {
     if (!started) {
       started = true;
       app.start(port);
+      // conversations interrupted by the last shutdown are answered once the webhooks are up
+      services.forEach(Service::replayUnanswered);
     }
     return this;
   }
@@ -67,8 +76,24 @@ public class ServicesRunner implements AutoCloseable {
     return this;
   }
 
+  /**
+   * Stops the server, then every service, then closes the stores of the services so that anything
+   * they have not yet written to disk is written. A store shared by several services is closed once
+   * all of them have stopped.
+   */
   @Override
   public void close() {
+    // no more requests come in once the server is closed, then the services can stop
     app.close();
+    services.forEach(Service::close);
+    Set<ChatStore<?>> stores = Collections.newSetFromMap(new IdentityHashMap<>());
+    services.forEach(s -> stores.add(s.store()));
+    for (ChatStore<?> store : stores) {
+      try {
+        store.close();
+      } catch (IOException e) {
+        LOGGER.error("failed to close store", e);
+      }
+    }
   }
 }
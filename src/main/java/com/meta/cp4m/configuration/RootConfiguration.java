@@ -14,15 +14,19 @@ import com.google.common.base.Preconditions;
 import com.meta.cp4m.Service;
 import com.meta.cp4m.ServiceConfiguration;
 import com.meta.cp4m.ServicesRunner;
+import com.meta.cp4m.http.AsyncHttpClient;
+import com.meta.cp4m.http.HttpClientConfig;
 import com.meta.cp4m.llm.LLMConfig;
 import com.meta.cp4m.llm.LLMPlugin;
 import com.meta.cp4m.message.HandlerConfig;
 import com.meta.cp4m.message.Message;
 import com.meta.cp4m.message.MessageHandler;
 import com.meta.cp4m.store.ChatStore;
+import com.meta.cp4m.store.LogStoreConfig;
 import com.meta.cp4m.store.StoreConfig;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -33,6 +37,7 @@ public class RootConfiguration {
   private final Map<String, StoreConfig> stores;
   private final Map<String, HandlerConfig> handlers;
   private final Collection<ServiceConfiguration> services;
+  private final @Nullable HttpClientConfig httpClient;
 
   private final int port;
 
@@ -42,7 +47,8 @@ public class RootConfiguration {
       @JsonProperty("stores") Collection<StoreConfig> stores,
       @JsonProperty("handlers") Collection<HandlerConfig> handlers,
       @JsonProperty("services") Collection<ServiceConfiguration> services,
-      @JsonProperty("port") @Nullable Integer port) {
+      @JsonProperty("port") @Nullable Integer port,
+      @JsonProperty("http_client") @Nullable HttpClientConfig httpClient) {
     this.port = port == null ? 8080 : port;
     Preconditions.checkArgument(
         this.port >= 0 && this.port <= 65535, "port must be between 0 and 65535");
@@ -94,7 +100,30 @@ public class RootConfiguration {
       Preconditions.checkArgument(
           this.handlers.containsKey(s.handler()), s.handler() + " must be the name of a handler");
     }
+
+    // services that name the same log store share one instance of it, replay can only tell the
+    // conversations in it apart by platform
+    Map<String, Map<Class<?>, String>> replaying = new HashMap<>();
+    for (ServiceConfiguration s : services) {
+      boolean shared = this.stores.get(s.store()) instanceof LogStoreConfig;
+      if (!shared || s.replayMaxConcurrency() == 0) {
+        continue;
+      }
+      @Nullable String other =
+          replaying
+              .computeIfAbsent(s.store(), k -> new HashMap<>())
+              .putIfAbsent(this.handlers.get(s.handler()).getClass(), s.webhookPath());
+      Preconditions.checkArgument(
+          other == null,
+          "services at %s and %s use the same platform and share the log store %s, replay cannot"
+              + " tell their conversations apart. Give them separate stores or set"
+              + " replay_max_concurrency to 0",
+          other,
+          s.webhookPath(),
+          s.store());
+    }
     this.services = services;
+    this.httpClient = httpClient;
   }
 
   Collection<LLMConfig> plugins() {
@@ -117,18 +146,29 @@ public class RootConfiguration {
     return port;
   }
 
+  @Nullable HttpClientConfig httpClient() {
+    return httpClient;
+  }
+
   private <T extends Message> Service<T> createService(
-      MessageHandler<T> handler, ServiceConfiguration serviceConfig) {
-    LLMPlugin<T> plugin = plugins.get(serviceConfig.plugin()).toPlugin();
+      MessageHandler<T> handler, ServiceConfiguration serviceConfig, AsyncHttpClient httpClient) {
+    LLMPlugin<T> plugin = plugins.get(serviceConfig.plugin()).toPlugin(httpClient);
     ChatStore<T> store = stores.get(serviceConfig.store()).toStore();
-    return new Service<>(store, handler, plugin, serviceConfig.webhookPath());
+    return new Service<>(
+            store, handler, plugin, serviceConfig.webhookPath(), serviceConfig.toExecutor())
+        .debounce(serviceConfig.debounce())
+        .replay(serviceConfig.replayMaxConcurrency(), serviceConfig.replayPerSecond())
+        .replayMaxAge(serviceConfig.replayMaxAge())
+        .ingest(serviceConfig.ingestQueueCapacity(), serviceConfig.ingestWorkers());
   }
 
   public ServicesRunner toServicesRunner() {
     ServicesRunner runner = ServicesRunner.newInstance().port(port);
+    // all handlers and plugins share one client so they share its connection pool
+    AsyncHttpClient client = httpClient == null ? AsyncHttpClient.shared() : httpClient.toClient();
     for (ServiceConfiguration service : services) {
-      MessageHandler<?> handler = handlers.get(service.handler()).toMessageHandler();
-      runner.service(createService(handler, service));
+      MessageHandler<?> handler = handlers.get(service.handler()).toMessageHandler(client);
+      runner.service(createService(handler, service, client));
     }
     return runner;
   }
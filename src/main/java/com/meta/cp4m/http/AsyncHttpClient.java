@@ -0,0 +1,244 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.http;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import org.apache.hc.client5.http.HttpResponseException;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.async.methods.SimpleRequestProducer;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A non-blocking HTTP client with a pooled set of connections per host.
+ *
+ * <p>Requests are handed to a small set of I/O threads and the caller gets a future back, no thread
+ * waits on the network. When the server supports it requests to the same host are multiplexed over
+ * a single HTTP/2 connection.
+ */
+public class AsyncHttpClient implements AutoCloseable {
+
+  private final HttpClientConfig config;
+  private final CloseableHttpAsyncClient client;
+
+  AsyncHttpClient(HttpClientConfig config) {
+    this.config = config;
+    this.client =
+        HttpAsyncClients.custom()
+            .setConnectionManager(
+                PoolingAsyncClientConnectionManagerBuilder.create()
+                    .setMaxConnTotal(config.maxConnections())
+                    .setMaxConnPerRoute(config.maxConnectionsPerHost())
+                    .setDefaultConnectionConfig(
+                        ConnectionConfig.custom()
+                            .setConnectTimeout(Timeout.of(config.connectTimeout()))
+                            .build())
+                    .setDefaultTlsConfig(
+                        TlsConfig.custom().setVersionPolicy(config.httpVersion().policy()).build())
+                    .build())
+            .setDefaultRequestConfig(
+                RequestConfig.custom()
+                    .setResponseTimeout(Timeout.of(config.responseTimeout()))
+                    .build())
+            .setThreadFactory(
+                new ThreadFactoryBuilder().setNameFormat("cp4m-http-%d").setDaemon(true).build())
+            .evictIdleConnections(TimeValue.ofMinutes(1))
+            .build();
+    client.start();
+  }
+
+  /**
+   * @return the client used by message handlers and LLM plugins that are not given one explicitly
+   */
+  public static AsyncHttpClient shared() {
+    return SharedHolder.INSTANCE;
+  }
+
+  public HttpClientConfig config() {
+    return config;
+  }
+
+  /**
+   * @param uri where to send the request
+   * @param json the request body
+   * @return a builder for a POST request with a JSON body
+   */
+  public static SimpleRequestBuilder postJson(URI uri, String json) {
+    return SimpleRequestBuilder.post(uri).setBody(json, ContentType.APPLICATION_JSON);
+  }
+
+  /**
+   * @param uri where to send the request
+   * @param json the request body, encoded as UTF-8
+   * @return a builder for a POST request with a JSON body
+   */
+  public static SimpleRequestBuilder postJson(URI uri, byte[] json) {
+    return SimpleRequestBuilder.post(uri).setBody(json, ContentType.APPLICATION_JSON);
+  }
+
+  /**
+   * @param request the request to send
+   * @return a future that completes with the response, or with an {@link IOException} if the
+   *     request could not be sent
+   */
+  public CompletableFuture<SimpleHttpResponse> execute(SimpleHttpRequest request) {
+    CompletableFuture<SimpleHttpResponse> future = new CompletableFuture<>();
+    client.execute(
+        request,
+        new FutureCallback<>() {
+          @Override
+          public void completed(SimpleHttpResponse result) {
+            future.complete(result);
+          }
+
+          @Override
+          public void failed(Exception ex) {
+            future.completeExceptionally(
+                ex instanceof IOException
+                    ? ex
+                    : new IOException("request to " + request.getRequestUri() + " failed", ex));
+          }
+
+          @Override
+          public void cancelled() {
+            future.cancel(false);
+          }
+        });
+    return future;
+  }
+
+  /**
+   * Send a request whose response is a stream of server-sent events.
+   *
+   * @param request the request to send
+   * @param onEvent called with the data of each event as soon as it has been received, always from
+   *     one thread at a time and in the order the events arrive
+   * @return a future that completes when the stream ends, or with an {@link IOException} if the
+   *     request fails or the response does not have a 2xx status code
+   */
+  public CompletableFuture<Void> stream(SimpleHttpRequest request, Consumer<String> onEvent) {
+    return consume(request, new ServerSentEventConsumer(onEvent));
+  }
+
+  /**
+   * Send a request whose response is JSON and parse the body as it arrives instead of buffering it.
+   *
+   * @param request the request to send
+   * @param factory creates the parser for the body
+   * @param visitor called with the parser on each scalar value of the body in document order,
+   *     always from one thread at a time
+   * @return a future that completes once the whole body has been parsed, or with an {@link
+   *     IOException} if the request fails, the response does not have a 2xx status code or the
+   *     body is not valid JSON
+   */
+  public CompletableFuture<Void> executeJson(
+      SimpleHttpRequest request, JsonFactory factory, JsonValueVisitor visitor) {
+    return consume(request, new JsonResponseConsumer(factory, visitor));
+  }
+
+  private CompletableFuture<Void> consume(
+      SimpleHttpRequest request, AsyncResponseConsumer<Void> consumer) {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    client.execute(
+        SimpleRequestProducer.create(request),
+        consumer,
+        new FutureCallback<>() {
+          @Override
+          public void completed(Void result) {
+            future.complete(null);
+          }
+
+          @Override
+          public void failed(Exception ex) {
+            future.completeExceptionally(
+                ex instanceof IOException
+                    ? ex
+                    : new IOException("request to " + request.getRequestUri() + " failed", ex));
+          }
+
+          @Override
+          public void cancelled() {
+            future.cancel(false);
+          }
+        });
+    return future;
+  }
+
+  /**
+   * The async equivalent of the fluent API's {@code returnContent()}.
+   *
+   * @param response a response from {@link #execute}
+   * @return the body of the response
+   * @throws HttpResponseException if the response does not have a 2xx status code
+   */
+  public static byte[] returnContent(SimpleHttpResponse response) throws HttpResponseException {
+    if (response.getCode() >= 300) {
+      throw new HttpResponseException(response.getCode(), response.getReasonPhrase());
+    }
+    byte @Nullable [] body = response.getBodyBytes();
+    return body == null ? new byte[0] : body;
+  }
+
+  /**
+   * Wait for a future returned by this client, for callers that have to block.
+   *
+   * @param future the future to wait for
+   * @return the value of the future
+   * @throws IOException the exception the future failed with if it was an IOException
+   */
+  public static <V> V await(CompletableFuture<V> future) throws IOException {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException io) {
+        throw io;
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public void close() {
+    client.close(CloseMode.GRACEFUL);
+  }
+
+  /** Receives the values of a JSON response as they are parsed, see {@link #executeJson} */
+  @FunctionalInterface
+  public interface JsonValueVisitor {
+    /**
+     * @param parser positioned on a scalar value, its parsing context tells where in the document
+     *     the value is
+     */
+    void accept(JsonParser parser) throws IOException;
+  }
+
+  private static final class SharedHolder {
+    private static final AsyncHttpClient INSTANCE = HttpClientConfig.defaults().toClient();
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.http;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import java.time.Duration;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+public class HttpClientConfig {
+  private static final int DEFAULT_MAX_CONNECTIONS = 200;
+  private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 50;
+  private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+  private static final Duration DEFAULT_RESPONSE_TIMEOUT = Duration.ofMinutes(3);
+
+  private final int maxConnections;
+  private final int maxConnectionsPerHost;
+  private final Duration connectTimeout;
+  private final Duration responseTimeout;
+  private final HttpVersion httpVersion;
+
+  @JsonCreator
+  HttpClientConfig(
+      @JsonProperty("max_connections") @Nullable Integer maxConnections,
+      @JsonProperty("max_connections_per_host") @Nullable Integer maxConnectionsPerHost,
+      @JsonProperty("connect_timeout_ms") @Nullable Long connectTimeoutMs,
+      @JsonProperty("response_timeout_ms") @Nullable Long responseTimeoutMs,
+      @JsonProperty("http_version") @Nullable HttpVersion httpVersion) {
+    Preconditions.checkArgument(
+        maxConnections == null || maxConnections > 0, "max_connections must be greater than zero");
+    Preconditions.checkArgument(
+        maxConnectionsPerHost == null || maxConnectionsPerHost > 0,
+        "max_connections_per_host must be greater than zero");
+    Preconditions.checkArgument(
+        connectTimeoutMs == null || connectTimeoutMs > 0,
+        "connect_timeout_ms must be greater than zero");
+    Preconditions.checkArgument(
+        responseTimeoutMs == null || responseTimeoutMs > 0,
+        "response_timeout_ms must be greater than zero");
+    this.maxConnections = maxConnections == null ? DEFAULT_MAX_CONNECTIONS : maxConnections;
+    this.maxConnectionsPerHost =
+        maxConnectionsPerHost == null ? DEFAULT_MAX_CONNECTIONS_PER_HOST : maxConnectionsPerHost;
+    Preconditions.checkArgument(
+        this.maxConnectionsPerHost <= this.maxConnections,
+        "max_connections_per_host cannot be greater than max_connections");
+    this.connectTimeout =
+        connectTimeoutMs == null ? DEFAULT_CONNECT_TIMEOUT : Duration.ofMillis(connectTimeoutMs);
+    this.responseTimeout =
+        responseTimeoutMs == null ? DEFAULT_RESPONSE_TIMEOUT : Duration.ofMillis(responseTimeoutMs);
+    this.httpVersion = httpVersion == null ? HttpVersion.NEGOTIATE : httpVersion;
+  }
+
+  public static HttpClientConfig defaults() {
+    return new HttpClientConfig(null, null, null, null, null);
+  }
+
+  public int maxConnections() {
+    return maxConnections;
+  }
+
+  public int maxConnectionsPerHost() {
+    return maxConnectionsPerHost;
+  }
+
+  public Duration connectTimeout() {
+    return connectTimeout;
+  }
+
+  public Duration responseTimeout() {
+    return responseTimeout;
+  }
+
+  public HttpVersion httpVersion() {
+    return httpVersion;
+  }
+
+  public AsyncHttpClient toClient() {
+    return new AsyncHttpClient(this);
+  }
+
+  public enum HttpVersion {
+    /** use HTTP/2 when the server offers it during the TLS handshake, HTTP/1.1 otherwise */
+    NEGOTIATE(HttpVersionPolicy.NEGOTIATE),
+    HTTP1(HttpVersionPolicy.FORCE_HTTP_1),
+    HTTP2(HttpVersionPolicy.FORCE_HTTP_2);
+
+    private final HttpVersionPolicy policy;
+
+    HttpVersion(HttpVersionPolicy policy) {
+      this.policy = policy;
+    }
+
+    HttpVersionPolicy policy() {
+      return policy;
+    }
+
+    @Override
+    public String toString() {
+      return name().toLowerCase();
+    }
+  }
+}
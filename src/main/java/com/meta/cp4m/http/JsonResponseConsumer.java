@@ -0,0 +1,97 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.http;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.apache.hc.client5.http.HttpResponseException;
+import org.apache.hc.client5.http.async.methods.AbstractBinResponseConsumer;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpResponse;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Parses a JSON response as it arrives. Each chunk of the body is fed to a non-blocking parser and
+ * every scalar value is passed on as soon as it is complete, so the body is never held in memory
+ * as a whole.
+ */
+class JsonResponseConsumer extends AbstractBinResponseConsumer<Void> {
+
+  private final JsonFactory factory;
+  private final AsyncHttpClient.JsonValueVisitor visitor;
+  private @Nullable JsonParser parser;
+
+  JsonResponseConsumer(JsonFactory factory, AsyncHttpClient.JsonValueVisitor visitor) {
+    this.factory = factory;
+    this.visitor = visitor;
+  }
+
+  @Override
+  protected void start(HttpResponse response, ContentType contentType) throws IOException {
+    if (response.getCode() >= 300) {
+      throw new HttpResponseException(response.getCode(), response.getReasonPhrase());
+    }
+    parser = factory.createNonBlockingByteBufferParser();
+  }
+
+  @Override
+  protected int capacityIncrement() {
+    return Integer.MAX_VALUE;
+  }
+
+  @Override
+  protected void data(ByteBuffer src, boolean endOfStream) throws IOException {
+    JsonParser parser = this.parser;
+    if (parser == null) {
+      return;
+    }
+    ByteBufferFeeder feeder = (ByteBufferFeeder) parser.getNonBlockingInputFeeder();
+    if (src.hasRemaining()) {
+      feeder.feedInput(src);
+      // the parser copies whatever is left of an incomplete token, so the buffer can be reused
+      parse(parser);
+      src.position(src.limit());
+    }
+    if (endOfStream) {
+      feeder.endOfInput();
+      parse(parser);
+    }
+  }
+
+  private void parse(JsonParser parser) throws IOException {
+    @Nullable JsonToken token;
+    while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+      if (token.isScalarValue()) {
+        visitor.accept(parser);
+      }
+    }
+  }
+
+  @Override
+  protected Void buildResult() {
+    return null;
+  }
+
+  @Override
+  public void releaseResources() {
+    @Nullable JsonParser parser = this.parser;
+    if (parser != null) {
+      try {
+        parser.close();
+      } catch (IOException e) {
+        // nothing to release for a parser reading from memory
+      }
+      this.parser = null;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import org.apache.hc.client5.http.HttpResponseException;
+import org.apache.hc.client5.http.async.methods.AbstractBinResponseConsumer;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpResponse;
+
+/**
+ * Reads a <a href="https://html.spec.whatwg.org/multipage/server-sent-events.html">server-sent
+ * events</a> response as it arrives and passes the data of each event on as soon as the event is
+ * complete. Only the data field is used, event names, ids and comments are ignored.
+ */
+class ServerSentEventConsumer extends AbstractBinResponseConsumer<Void> {
+
+  private final Consumer<String> onEvent;
+  private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+  private final StringBuilder data = new StringBuilder();
+  private boolean hasData = false;
+
+  ServerSentEventConsumer(Consumer<String> onEvent) {
+    this.onEvent = onEvent;
+  }
+
+  @Override
+  protected void start(HttpResponse response, ContentType contentType) throws IOException {
+    if (response.getCode() >= 300) {
+      throw new HttpResponseException(response.getCode(), response.getReasonPhrase());
+    }
+  }
+
+  @Override
+  protected int capacityIncrement() {
+    return Integer.MAX_VALUE;
+  }
+
+  @Override
+  protected void data(ByteBuffer src, boolean endOfStream) {
+    while (src.hasRemaining()) {
+      byte b = src.get();
+      if (b == '\n') {
+        // lines are split on the byte so multibyte characters are never cut in half
+        line(line.toString(StandardCharsets.UTF_8));
+        line.reset();
+      } else if (b != '\r') {
+        line.write(b);
+      }
+    }
+    if (endOfStream) {
+      if (line.size() > 0) {
+        line(line.toString(StandardCharsets.UTF_8));
+        line.reset();
+      }
+      dispatch();
+    }
+  }
+
+  private void line(String line) {
+    if (line.isEmpty()) {
+      dispatch();
+    } else if (line.startsWith("data:")) {
+      String value = line.substring(5);
+      if (value.startsWith(" ")) {
+        value = value.substring(1);
+      }
+      if (hasData) {
+        data.append('\n');
+      }
+      data.append(value);
+      hasData = true;
+    }
+  }
+
+  private void dispatch() {
+    if (hasData) {
+      String event = data.toString();
+      data.setLength(0);
+      hasData = false;
+      onEvent.accept(event);
+    }
+  }
+
+  @Override
+  protected Void buildResult() {
+    return null;
+  }
+
+  @Override
+  public void releaseResources() {}
+}
@@ -12,6 +12,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonPOJOBuilder;
 import com.google.common.base.Preconditions;
+import com.meta.cp4m.http.AsyncHttpClient;
 import com.meta.cp4m.message.Message;
 import java.net.URI;
 import java.util.*;
@@ -34,6 +35,7 @@ public class HuggingFaceConfig implements LLMConfig {
   private final @Nullable String systemMessage;
 
   private final long maxInputTokens;
+  private final boolean stream;
 
   private HuggingFaceConfig(
       URI endpoint,
@@ -47,7 +49,8 @@ public class HuggingFaceConfig implements LLMConfig {
       @Nullable Double frequencyPenalty,
       Map<Long, Double> logitBias,
       @Nullable String systemMessage,
-      long maxInputTokens) {
+      long maxInputTokens,
+      boolean stream) {
     this.endpoint = endpoint;
     this.name = name;
     this.apiKey = apiKey;
@@ -60,6 +63,7 @@ public class HuggingFaceConfig implements LLMConfig {
     this.logitBias = Collections.unmodifiableMap(logitBias);
     this.systemMessage = systemMessage;
     this.maxInputTokens = maxInputTokens;
+    this.stream = stream;
   }
 
   public static Builder builder(String apiKey) {
@@ -118,10 +122,21 @@ public class HuggingFaceConfig implements LLMConfig {
     return maxInputTokens;
   }
 
+  /**
+   * @return true if responses should be streamed from the LLM and sent a paragraph at a time
+   */
+  public boolean stream() {
+    return stream;
+  }
+
   public <T extends Message> HuggingFaceLlamaPlugin<T> toPlugin() {
     return new HuggingFaceLlamaPlugin<>(this);
   }
 
+  public <T extends Message> HuggingFaceLlamaPlugin<T> toPlugin(AsyncHttpClient httpClient) {
+    return new HuggingFaceLlamaPlugin<>(this, httpClient);
+  }
+
   @JsonPOJOBuilder(withPrefix = "")
   public static class Builder {
 
@@ -157,6 +172,8 @@ public class HuggingFaceConfig implements LLMConfig {
     @JsonProperty("max_input_tokens")
     private @Nullable Long maxInputTokens;
 
+    private boolean stream = false;
+
     public @This Builder endpoint(String endpoint) {
       this.endpoint = URI.create(endpoint);
       return this;
@@ -237,6 +254,11 @@ public class HuggingFaceConfig implements LLMConfig {
       return this;
     }
 
+    public @This Builder stream(boolean stream) {
+      this.stream = stream;
+      return this;
+    }
+
     public HuggingFaceConfig build() {
       Objects.requireNonNull(endpoint, "endpoint is a required parameter");
       Objects.requireNonNull(name, "name is a required parameter");
@@ -274,7 +296,8 @@ public class HuggingFaceConfig implements LLMConfig {
           frequencyPenalty,
           logitBias,
           systemMessage,
-          maxInputTokens);
+          maxInputTokens,
+          stream);
     }
   }
 }
@@ -8,69 +8,170 @@
 
 package com.meta.cp4m.llm;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.meta.cp4m.http.AsyncHttpClient;
 import com.meta.cp4m.message.Message;
 import com.meta.cp4m.message.ThreadState;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.time.Instant;
+import java.util.Objects;
 import java.util.Optional;
-import org.apache.hc.client5.http.fluent.Request;
-import org.apache.hc.client5.http.fluent.Response;
-import org.apache.hc.core5.http.ContentType;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 public class HuggingFaceLlamaPlugin<T extends Message> implements LLMPlugin<T> {
 
     private static final ObjectMapper MAPPER = new ObjectMapper();
     private final HuggingFaceConfig config;
     private final HuggingFaceLlamaPrompt<T> promptCreator;
+    private final RequestTemplate requestTemplate;
+    private final AsyncHttpClient httpClient;
 
     private URI endpoint;
 
     public HuggingFaceLlamaPlugin(HuggingFaceConfig config) {
+        this(config, AsyncHttpClient.shared());
+    }
+
+    public HuggingFaceLlamaPlugin(HuggingFaceConfig config, AsyncHttpClient httpClient) {
         this.config = config;
+        this.httpClient = Objects.requireNonNull(httpClient);
         this.endpoint = this.config.endpoint();
         promptCreator = new HuggingFaceLlamaPrompt<>(config.systemMessage(), config.maxInputTokens());
-    }
 
-    @Override
-    public T handle(ThreadState<T> threadState) throws IOException {
         ObjectNode body = MAPPER.createObjectNode();
-        ObjectNode params = MAPPER.createObjectNode();
-
+        ObjectNode params = body.putObject("parameters");
         config.topP().ifPresent(v -> params.put("top_p", v));
         config.temperature().ifPresent(v -> params.put("temperature", v));
         config.maxOutputTokens().ifPresent(v -> params.put("max_new_tokens", v));
+        params.put("return_full_text", false);
+        requestTemplate = new RequestTemplate(MAPPER, body);
+    }
 
-        body.set("parameters", params);
+    @Override
+    public T handle(ThreadState<T> threadState) throws IOException {
+        return AsyncHttpClient.await(handleAsync(threadState));
+    }
 
+    @Override
+    public CompletableFuture<T> handleAsync(ThreadState<T> threadState) {
+        if (config.stream()) {
+            return handleStreaming(threadState, text -> {});
+        }
         Optional<String> prompt = promptCreator.createPrompt(threadState);
         if (prompt.isEmpty()) {
-            return threadState.newMessageFromBot(Instant.now(), "I'm sorry but that request was too long for me.");
+            return CompletableFuture.completedFuture(tooLong(threadState));
         }
+        ResponseReader response = new ResponseReader();
+        return httpClient
+                .executeJson(request(prompt.get(), false), MAPPER.getFactory(), response)
+                .thenApply(
+                        v -> {
+                            try {
+                                return response.toMessage(threadState);
+                            } catch (IOException e) {
+                                throw new CompletionException(e);
+                            }
+                        });
+    }
 
-        body.put("inputs", prompt.get());
+    @Override
+    public CompletableFuture<T> handleStreaming(ThreadState<T> threadState, Consumer<String> onText) {
+        if (!config.stream()) {
+            return LLMPlugin.super.handleStreaming(threadState, onText);
+        }
+        Optional<String> prompt = promptCreator.createPrompt(threadState);
+        if (prompt.isEmpty()) {
+            T response = tooLong(threadState);
+            onText.accept(response.message());
+            return CompletableFuture.completedFuture(response);
+        }
+
+        // text-generation-inference sends one event per token, the last one also has the full text
+        StringBuilder text = new StringBuilder();
+        return httpClient
+                .stream(
+                        request(prompt.get(), true),
+                        event -> {
+                            JsonNode chunk;
+                            try {
+                                chunk = MAPPER.readTree(event);
+                            } catch (JsonProcessingException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                            JsonNode token = chunk.get("token");
+                            if (token.get("special").booleanValue()) {
+                                return;
+                            }
+                            String tokenText = token.get("text").textValue();
+                            if (text.isEmpty()) {
+                                tokenText = tokenText.stripLeading();
+                            }
+                            if (!tokenText.isEmpty()) {
+                                text.append(tokenText);
+                                onText.accept(tokenText);
+                            }
+                        })
+                .thenApply(v -> threadState.newMessageFromBot(Instant.now(), text.toString().strip()));
+    }
+
+    private T tooLong(ThreadState<T> threadState) {
+        return threadState.newMessageFromBot(Instant.now(), "I'm sorry but that request was too long for me.");
+    }
 
-        String bodyString;
+    private SimpleHttpRequest request(String prompt, boolean stream) {
+        byte[] body;
         try {
-            bodyString = MAPPER.writeValueAsString(body);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e); // this should be impossible
+            body =
+                    requestTemplate.render(
+                            generator -> {
+                                generator.writeStringField("inputs", prompt);
+                                if (stream) {
+                                    generator.writeBooleanField("stream", true);
+                                }
+                            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // this should be impossible
+        }
+        return AsyncHttpClient.postJson(endpoint, body)
+                .setHeader("Authorization", "Bearer " + config.apiKey())
+                .build();
+    }
+
+    /**
+     * Reads the response while it is parsed, only {@code generated_text} of the first result is
+     * kept. The prompt is not echoed back since the request sets {@code return_full_text} to false.
+     */
+    private static final class ResponseReader implements AsyncHttpClient.JsonValueVisitor {
+        private static final JsonPointer GENERATED_TEXT = JsonPointer.compile("/0/generated_text");
+
+        private @Nullable String generatedText;
+
+        @Override
+        public void accept(JsonParser parser) throws IOException {
+            if ("generated_text".equals(parser.currentName())
+                    && parser.currentToken() == JsonToken.VALUE_STRING
+                    && parser.getParsingContext().pathAsPointer().equals(GENERATED_TEXT)) {
+                generatedText = parser.getText();
+            }
+        }
+
+        private <M extends Message> M toMessage(ThreadState<M> threadState) throws IOException {
+            if (generatedText == null) {
+                throw new IOException("response must have a 'generated_text'");
+            }
+            return threadState.newMessageFromBot(Instant.now(), generatedText.strip());
         }
-        Response response =
-                Request.post(endpoint)
-                        .bodyString(bodyString, ContentType.APPLICATION_JSON)
-                        .setHeader("Authorization", "Bearer " + config.apiKey())
-                        .execute();
-
-        JsonNode responseBody = MAPPER.readTree(response.returnContent().asBytes());
-        String allGeneratedText = responseBody.get(0).get("generated_text").textValue();
-        String llmResponse = allGeneratedText.strip().replace(prompt.get().strip(), "");
-        Instant timestamp = Instant.now();
-
-        return threadState.newMessageFromBot(timestamp, llmResponse);
     }
 }
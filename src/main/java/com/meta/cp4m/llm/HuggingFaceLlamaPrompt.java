@@ -8,101 +8,139 @@
 
 package com.meta.cp4m.llm;
 
-import ai.djl.huggingface.tokenizers.Encoding;
-import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.meta.cp4m.Identifier;
 import com.meta.cp4m.message.Message;
 import com.meta.cp4m.message.ThreadState;
-import java.io.IOException;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.nio.file.Paths;
 import java.util.*;
+import java.util.function.Supplier;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
+/**
+ * Builds the Llama 2 chat prompt for a thread from as many of its latest messages as fit in the
+ * input token budget.
+ *
+ * <p>Each new prompt for a thread is usually the previous one with one or two more messages, so
+ * the messages in the last prompt of every thread are kept along with their rendered text and
+ * token total. The next prompt only renders and counts the messages added since. The whole window
+ * is only rendered again when the budget forces the oldest messages out of it.
+ */
 public class HuggingFaceLlamaPrompt<T extends Message> {
 
-    private final String systemMessage;
+    /** each window holds up to a full prompt of text, so only the most active threads are kept */
+    private static final int MAX_CACHED_THREADS = 1_000;
+
+    private final String header;
     private final long maxInputTokens;
-    private final HuggingFaceTokenizer tokenizer;
+    private final Supplier<Integer> systemMessageTokens;
+    private final Cache<Identifier, Window> windows =
+            CacheBuilder.newBuilder().maximumSize(MAX_CACHED_THREADS).build();
 
     public HuggingFaceLlamaPrompt(String systemMessage, long maxInputTokens) {
 
-        this.systemMessage = systemMessage;
+        this.header = "<s>[INST] <<SYS>>\n" + systemMessage + "\n<</SYS>>\n\n";
         this.maxInputTokens = maxInputTokens;
-        URL llamaTokenizerUrl =
-                Objects.requireNonNull(
-                        HuggingFaceLlamaPrompt.class.getClassLoader().getResource("llamaTokenizer.json"));
-        URI llamaTokenizer;
-        try {
-            llamaTokenizer = llamaTokenizerUrl.toURI();
-            tokenizer = HuggingFaceTokenizer.newInstance(Paths.get(llamaTokenizer));
-
-        } catch (URISyntaxException | IOException e) {
-            // this should be impossible
-            throw new RuntimeException(e);
-        }
+        // the tokenizer is only loaded once the first prompt is created
+        this.systemMessageTokens =
+                Suppliers.memoize(() -> LlamaTokenizer.shared().tokenCount(systemMessage));
     }
 
     public Optional<String> createPrompt(ThreadState<T> threadState) {
-
-        PromptBuilder builder = new PromptBuilder();
-
-        int totalTokens = tokenCount(this.systemMessage) + 5; // Account for closing tokens
-        builder.addSystem(this.systemMessage);
-
-        for (int i = threadState.messages().size() - 1; i >= 0; i--) {
-            Message m = threadState.messages().get(i);
-            totalTokens += tokenCount(m.message());
-            if (totalTokens > maxInputTokens) {
-                if (i == threadState.messages().size() - 1){
-                    return Optional.empty();
-                }
-                break;
-            }
-            switch (m.role()) {
-                case USER -> builder.addUser(m.message());
-                case ASSISTANT -> builder.addAssistant(m.message());
-            }
-        }
-
-        return Optional.of(builder.build());
+        List<T> messages = threadState.messages();
+        @Nullable String[] prompt = {null};
+        // compute keeps two prompts for the same thread from extending its window at once
+        windows.asMap()
+                .compute(
+                        threadState.tail().threadId(),
+                        (threadId, window) -> {
+                            int next = window == null ? -1 : window.next(messages);
+                            if (next < 0) {
+                                window = new Window();
+                                next = 0;
+                            }
+                            if (!window.extend(messages.subList(next, messages.size()))) {
+                                return null; // not even the last message fits
+                            }
+                            prompt[0] = window.prompt();
+                            return window;
+                        });
+        return Optional.ofNullable(prompt[0]);
     }
 
-    private int tokenCount(String message) {
-        Encoding encoding = tokenizer.encode(message);
-        return encoding.getTokens().length;
-    }
-
-    private static class PromptBuilder {
-        
-        StringBuilder promptStringBuilder = new StringBuilder();
-        StringBuilder messagesStringBuilder = new StringBuilder();
-
-        void addSystem(String message) {
-            promptStringBuilder
-                    .append("<s>[INST] <<SYS>>\n")
-                    .append(message)
-                    .append("\n<</SYS>>\n\n");
+    private static void render(StringBuilder rendered, Message m) {
+        switch (m.role()) {
+            case USER -> rendered.append(m.message()).append(" [/INST] ");
+            case ASSISTANT -> rendered.append(m.message()).append(" </s><s>[INST] ");
         }
+    }
 
-        void addAssistant(String message) {
-            StringBuilder tempBuilder = new StringBuilder();
-            tempBuilder
-                    .append(message)
-                    .append(" </s><s>[INST] ");
-            messagesStringBuilder.append(tempBuilder.reverse());
+    /** The latest messages of a thread that fit in the budget and their rendered text. */
+    private final class Window {
+        private final ArrayDeque<T> messages = new ArrayDeque<>();
+        private final ArrayDeque<Integer> tokenCounts = new ArrayDeque<>();
+        private final StringBuilder rendered = new StringBuilder();
+        private int totalTokens = systemMessageTokens.get() + 5; // Account for closing tokens
+
+        /**
+         * @return the index of the first message in the thread that comes after this window, -1 if
+         *     the thread does not continue this window
+         */
+        private int next(List<T> thread) {
+            if (messages.isEmpty()) {
+                return -1;
+            }
+            Identifier last = messages.getLast().instanceId();
+            for (int i = thread.size() - 1; i >= 0; i--) {
+                if (thread.get(i).instanceId().equals(last)) {
+                    int first = i - messages.size() + 1;
+                    boolean continues =
+                            first >= 0
+                                    && thread.get(first)
+                                            .instanceId()
+                                            .equals(messages.getFirst().instanceId());
+                    return continues ? i + 1 : -1;
+                }
+            }
+            return -1;
         }
 
-        void addUser(String message) {
-            StringBuilder tempBuilder = new StringBuilder();
-            tempBuilder
-                    .append(message)
-                    .append(" [/INST] ");
-            messagesStringBuilder.append(tempBuilder.reverse());
+        /** @return false if the window is empty once the added messages are in it */
+        private boolean extend(List<T> added) {
+            int[] counts = LlamaTokenizer.shared().tokenCounts(added);
+            for (int i = 0; i < counts.length; i++) {
+                messages.addLast(added.get(i));
+                tokenCounts.addLast(counts[i]);
+                totalTokens += counts[i];
+            }
+            boolean slid = false;
+            while (totalTokens > maxInputTokens && !messages.isEmpty()) {
+                messages.removeFirst();
+                totalTokens -= tokenCounts.removeFirst();
+                slid = true;
+            }
+            if (slid) {
+                rendered.setLength(0);
+                messages.forEach(m -> render(rendered, m));
+            } else {
+                added.forEach(m -> render(rendered, m));
+            }
+            return !messages.isEmpty();
         }
 
-        String build() {
-            return promptStringBuilder.append(messagesStringBuilder.reverse()).toString().strip();
+        private String prompt() {
+            int end = rendered.length();
+            while (end > 0 && Character.isWhitespace(rendered.charAt(end - 1))) {
+                end--;
+            }
+            if (end == 0) {
+                return header.strip();
+            }
+            return new StringBuilder(header.length() + end)
+                    .append(header)
+                    .append(rendered, 0, end)
+                    .toString();
         }
     }
 }
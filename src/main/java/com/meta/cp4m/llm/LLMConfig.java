@@ -10,6 +10,7 @@ package com.meta.cp4m.llm;
 
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.meta.cp4m.http.AsyncHttpClient;
 import com.meta.cp4m.message.Message;
 
 @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "type")
@@ -21,5 +22,14 @@ public interface LLMConfig {
 
   String name();
 
+  /**
+   * @return a plugin that calls its LLM with the {@link AsyncHttpClient#shared()} client
+   */
   <T extends Message> LLMPlugin<T> toPlugin();
+
+  /**
+   * @param httpClient the client used to call the LLM
+   * @return a plugin that calls its LLM with the given client
+   */
+  <T extends Message> LLMPlugin<T> toPlugin(AsyncHttpClient httpClient);
 }
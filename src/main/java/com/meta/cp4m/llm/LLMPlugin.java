@@ -11,8 +11,41 @@ package com.meta.cp4m.llm;
 import com.meta.cp4m.message.Message;
 import com.meta.cp4m.message.ThreadState;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public interface LLMPlugin<T extends Message> {
 
   T handle(ThreadState<T> threadState) throws IOException;
+
+  /**
+   * Get the response to a thread without blocking the calling thread. Plugins that talk to their
+   * LLM over the network should override this, the default calls {@link #handle} on the calling
+   * thread.
+   *
+   * @param threadState the thread to respond to
+   * @return a future that completes with the response from the LLM, or completes exceptionally with
+   *     an {@link IOException} if the LLM could not be reached
+   */
+  default CompletableFuture<T> handleAsync(ThreadState<T> threadState) {
+    try {
+      return CompletableFuture.completedFuture(handle(threadState));
+    } catch (IOException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  /**
+   * Get the response to a thread, passing on the text of the response as it is generated. Plugins
+   * that can stream from their LLM should override this, the default never calls {@code onText}
+   * and the response is only available once {@link #handleAsync} completes.
+   *
+   * @param threadState the thread to respond to
+   * @param onText called with each new piece of the response text, in order and from one thread at
+   *     a time
+   * @return a future that completes with the whole response once it has been generated
+   */
+  default CompletableFuture<T> handleStreaming(ThreadState<T> threadState, Consumer<String> onText) {
+    return handleAsync(threadState);
+  }
 }
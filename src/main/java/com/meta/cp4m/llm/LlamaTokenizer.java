@@ -0,0 +1,105 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.llm;
+
+import ai.djl.huggingface.tokenizers.Encoding;
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.meta.cp4m.Identifier;
+import com.meta.cp4m.message.Message;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Counts Llama tokens for every Hugging Face plugin.
+ *
+ * <p>The tokenizer is loaded from {@code llamaTokenizer.json} the first time it is needed and then
+ * shared, the native tokenizer is safe to use from many threads. The token count of a message is
+ * worked out once and cached by its instance id, messages that have not been counted yet are
+ * encoded together in one batch.
+ */
+final class LlamaTokenizer {
+
+  private static final int MAX_CACHED_TOKEN_COUNTS = 100_000;
+  private static final Supplier<LlamaTokenizer> SHARED = Suppliers.memoize(LlamaTokenizer::load);
+
+  private final HuggingFaceTokenizer tokenizer;
+  private final Cache<Identifier, Integer> tokenCounts =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_TOKEN_COUNTS).build();
+
+  private LlamaTokenizer(HuggingFaceTokenizer tokenizer) {
+    this.tokenizer = tokenizer;
+  }
+
+  /** @return the tokenizer shared by every plugin, loading it if this is the first call */
+  static LlamaTokenizer shared() {
+    return SHARED.get();
+  }
+
+  private static LlamaTokenizer load() {
+    try (InputStream json =
+        Objects.requireNonNull(
+            LlamaTokenizer.class.getClassLoader().getResourceAsStream("llamaTokenizer.json"))) {
+      return new LlamaTokenizer(HuggingFaceTokenizer.newInstance(json, Map.of()));
+    } catch (IOException e) {
+      // this should be impossible
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @param text the text to count
+   * @return the number of tokens in the text
+   */
+  int tokenCount(String text) {
+    return tokenCount(tokenizer.encode(text));
+  }
+
+  /**
+   * @param messages the messages to count
+   * @return the number of tokens in each message, in the same order
+   */
+  int[] tokenCounts(List<? extends Message> messages) {
+    int[] counts = new int[messages.size()];
+    List<String> uncounted = new ArrayList<>();
+    List<Integer> uncountedIndexes = new ArrayList<>();
+    for (int i = 0; i < counts.length; i++) {
+      Message message = messages.get(i);
+      @Nullable Integer count = tokenCounts.getIfPresent(message.instanceId());
+      if (count == null) {
+        uncounted.add(message.message());
+        uncountedIndexes.add(i);
+      } else {
+        counts[i] = count;
+      }
+    }
+    if (uncounted.isEmpty()) {
+      return counts;
+    }
+    Encoding[] encodings = tokenizer.batchEncode(uncounted);
+    for (int j = 0; j < encodings.length; j++) {
+      int i = uncountedIndexes.get(j);
+      counts[i] = tokenCount(encodings[j]);
+      tokenCounts.put(messages.get(i).instanceId(), counts[i]);
+    }
+    return counts;
+  }
+
+  private static int tokenCount(Encoding encoding) {
+    return encoding.getIds().length;
+  }
+}
@@ -12,6 +12,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonPOJOBuilder;
 import com.google.common.base.Preconditions;
+import com.meta.cp4m.http.AsyncHttpClient;
 import com.meta.cp4m.message.Message;
 import java.util.*;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -33,6 +34,7 @@ public class OpenAIConfig implements LLMConfig {
   private final @Nullable String systemMessage;
 
   private final long maxInputTokens;
+  private final boolean stream;
 
   private OpenAIConfig(
       String name,
@@ -46,7 +48,8 @@ public class OpenAIConfig implements LLMConfig {
       @Nullable Double frequencyPenalty,
       Map<Long, Double> logitBias,
       @Nullable String systemMessage,
-      long maxInputTokens) {
+      long maxInputTokens,
+      boolean stream) {
     this.name = name;
     this.apiKey = apiKey;
     this.temperature = temperature;
@@ -59,6 +62,7 @@ public class OpenAIConfig implements LLMConfig {
     this.logitBias = Collections.unmodifiableMap(logitBias);
     this.systemMessage = systemMessage;
     this.maxInputTokens = maxInputTokens;
+    this.stream = stream;
   }
 
   public static Builder builder(OpenAIModel model, String apiKey) {
@@ -117,10 +121,21 @@ public class OpenAIConfig implements LLMConfig {
     return maxInputTokens;
   }
 
+  /**
+   * @return true if responses should be streamed from the LLM and sent a paragraph at a time
+   */
+  public boolean stream() {
+    return stream;
+  }
+
   public <T extends Message> OpenAIPlugin<T> toPlugin() {
     return new OpenAIPlugin<>(this);
   }
 
+  public <T extends Message> OpenAIPlugin<T> toPlugin(AsyncHttpClient httpClient) {
+    return new OpenAIPlugin<>(this, httpClient);
+  }
+
   @JsonPOJOBuilder(withPrefix = "")
   public static class Builder {
 
@@ -156,6 +171,8 @@ public class OpenAIConfig implements LLMConfig {
     @JsonProperty("max_input_tokens")
     private @Nullable Long maxInputTokens;
 
+    private boolean stream = false;
+
     private Builder() {}
 
     public @This Builder name(String name) {
@@ -238,6 +255,11 @@ public class OpenAIConfig implements LLMConfig {
       return this;
     }
 
+    public @This Builder stream(boolean stream) {
+      this.stream = stream;
+      return this;
+    }
+
     public OpenAIConfig build() {
       Objects.requireNonNull(name, "name is a required parameter");
       Objects.requireNonNull(model, "model is a required parameter");
@@ -280,7 +302,8 @@ public class OpenAIConfig implements LLMConfig {
           frequencyPenalty,
           logitBias,
           systemMessage,
-          maxInputTokens);
+          maxInputTokens,
+          stream);
     }
   }
 }
@@ -8,24 +8,35 @@
 
 package com.meta.cp4m.llm;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.knuddels.jtokkit.Encodings;
 import com.knuddels.jtokkit.api.Encoding;
+import com.meta.cp4m.Identifier;
+import com.meta.cp4m.http.AsyncHttpClient;
 import com.meta.cp4m.message.Message;
 import com.meta.cp4m.message.Message.Role;
 import com.meta.cp4m.message.ThreadState;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
-import org.apache.hc.client5.http.fluent.Request;
-import org.apache.hc.client5.http.fluent.Response;
-import org.apache.hc.core5.http.ContentType;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.common.returnsreceiver.qual.This;
 import org.jetbrains.annotations.TestOnly;
@@ -34,14 +45,26 @@ public class OpenAIPlugin<T extends Message> implements LLMPlugin<T> {
 
   private static final ObjectMapper MAPPER = new ObjectMapper();
   private static final String ENDPOINT = "https://api.openai.com/v1/chat/completions";
+  private static final int MAX_CACHED_TOKEN_COUNTS = 100_000;
+
   private final OpenAIConfig config;
   private final Encoding tokenEncoding;
   private final int tokensPerMessage;
-  private final int tokensPerName;
+  private final int systemMessageTokens;
+  /** token counts by message instance id, the plugin's encoding is fixed so it is not in the key */
+  private final Cache<Identifier, Integer> tokenCounts =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_TOKEN_COUNTS).build();
+  private final RequestTemplate requestTemplate;
+  private final AsyncHttpClient httpClient;
   private URI endpoint;
 
   public OpenAIPlugin(OpenAIConfig config) {
+    this(config, AsyncHttpClient.shared());
+  }
+
+  public OpenAIPlugin(OpenAIConfig config, AsyncHttpClient httpClient) {
     this.config = config;
+    this.httpClient = Objects.requireNonNull(httpClient);
 
     try {
       this.endpoint = new URI(ENDPOINT);
@@ -53,16 +76,29 @@ public class OpenAIPlugin<T extends Message> implements LLMPlugin<T> {
             .getEncodingForModel(config.model().properties().jtokkinModel());
 
     switch (config.model()) {
-      case GPT4, GPT432K -> {
-        tokensPerMessage = 3;
-        tokensPerName = 1;
-      }
-      case GPT35TURBO, GPT35TURBO16K -> {
-        tokensPerMessage = 4; // every message follows <|start|>{role/name}\n{content}<|end|>\n
-        tokensPerName = -1; // if there's a name, the role is omitted
-      }
+      case GPT4, GPT432K -> tokensPerMessage = 3;
+      case GPT35TURBO, GPT35TURBO16K ->
+          tokensPerMessage = 4; // every message follows <|start|>{role/name}\n{content}<|end|>\n
       default -> throw new IllegalArgumentException("Unsupported model: " + config.model());
     }
+    systemMessageTokens = tokenCount(roleName(Role.SYSTEM), config.systemMessage());
+
+    ObjectNode body = MAPPER.createObjectNode();
+    body.put("model", config.model().properties().name())
+        // .put("function_call", "auto") // Update when we support functions
+        .put("n", 1);
+    config.topP().ifPresent(v -> body.put("top_p", v));
+    config.temperature().ifPresent(v -> body.put("temperature", v));
+    config.maxOutputTokens().ifPresent(v -> body.put("max_tokens", v));
+    config.presencePenalty().ifPresent(v -> body.put("presence_penalty", v));
+    config.frequencyPenalty().ifPresent(v -> body.put("frequency_penalty", v));
+    if (!config.logitBias().isEmpty()) {
+      body.set("logit_bias", MAPPER.valueToTree(config.logitBias()));
+    }
+    if (!config.stop().isEmpty()) {
+      body.set("stop", MAPPER.valueToTree(config.stop()));
+    }
+    requestTemplate = new RequestTemplate(MAPPER, body);
   }
 
   @TestOnly
@@ -71,117 +107,209 @@ public class OpenAIPlugin<T extends Message> implements LLMPlugin<T> {
     return this;
   }
 
-  private int tokenCount(JsonNode message) {
-    int tokenCount = tokensPerMessage;
-    tokenCount += tokenEncoding.countTokens(message.get("content").textValue());
-    tokenCount += tokenEncoding.countTokens(message.get("role").textValue());
-    @Nullable JsonNode name = message.get("name");
-    if (name != null) {
-      tokenCount += tokenEncoding.countTokens(name.textValue());
-      tokenCount += tokensPerName;
-    }
-    return tokenCount;
+  /**
+   * @return the tokens the message takes up in the prompt, counted the first time the message is
+   *     seen and then looked up by its instance id
+   */
+  private int tokenCount(Message message) {
+    return tokenCounts
+        .asMap()
+        .computeIfAbsent(
+            message.instanceId(),
+            id -> tokenCount(roleName(message.role()), message.message()));
   }
 
-  private Optional<ArrayNode> pruneMessages(ArrayNode messages, @Nullable JsonNode functions)
-      throws JsonProcessingException {
-
-    int functionTokens = 0;
-    if (functions != null) {
-      // This is honestly a guess, it's undocumented
-      functionTokens = tokenEncoding.countTokens(MAPPER.writeValueAsString(functions));
-    }
+  private int tokenCount(String role, String content) {
+    return tokensPerMessage + tokenEncoding.countTokens(role) + tokenEncoding.countTokens(content);
+  }
 
-    ArrayNode output = MAPPER.createArrayNode();
-    int totalTokens = functionTokens;
-    totalTokens += 3; // every reply is primed with <|start|>assistant<|message|>
+  private static String roleName(Role role) {
+    return role.toString().toLowerCase();
+  }
 
-    JsonNode systemMessage = messages.get(0);
-    boolean hasSystemMessage = systemMessage.get("role").textValue().equals("system");
-    if (hasSystemMessage) {
-      // if the system message is present it's required
-      totalTokens += tokenCount(messages.get(0));
-    }
+  /**
+   * Walks the thread backwards adding up the token count of each message until the context is
+   * full. The system message is always part of the prompt and system messages in the thread are
+   * left out.
+   *
+   * @return the messages that fit in the context in order, empty if not even the last one fits
+   */
+  private List<T> pruneMessages(List<T> messages) {
+    // every reply is primed with <|start|>assistant<|message|>
+    int totalTokens = 3 + systemMessageTokens;
+    int start = messages.size();
+    int included = 0;
     for (int i = messages.size() - 1; i >= 0; i--) {
-      JsonNode m = messages.get(i);
-      String role = m.get("role").textValue();
-      if (role.equals("system")) {
-        continue; // system has already been counted
+      T m = messages.get(i);
+      if (m.role() == Role.SYSTEM) {
+        continue; // the system message has already been counted
       }
       totalTokens += tokenCount(m);
       if (totalTokens > config.maxInputTokens()) {
         break;
       }
-      output.insert(0, m);
+      start = i;
+      included++;
     }
-    if (hasSystemMessage) {
-      output.insert(0, systemMessage);
+    if (included == 0) {
+      return List.of();
     }
-
-    if ((hasSystemMessage && output.size() <= 1) || output.isEmpty()) {
-      return Optional.empty();
-    }
-
-    return Optional.of(output);
+    List<T> tail = messages.subList(start, messages.size());
+    return included == tail.size()
+        ? tail
+        : tail.stream().filter(m -> m.role() != Role.SYSTEM).toList();
   }
 
   @Override
   public T handle(ThreadState<T> threadState) throws IOException {
-    T fromUser = threadState.tail();
+    return AsyncHttpClient.await(handleAsync(threadState));
+  }
 
-    ObjectNode body = MAPPER.createObjectNode();
-    body.put("model", config.model().properties().name())
-        // .put("function_call", "auto") // Update when we support functions
-        .put("n", 1)
-        .put("stream", false)
-        .put("user", fromUser.senderId().toString());
-    config.topP().ifPresent(v -> body.put("top_p", v));
-    config.temperature().ifPresent(v -> body.put("temperature", v));
-    config.maxOutputTokens().ifPresent(v -> body.put("max_tokens", v));
-    config.presencePenalty().ifPresent(v -> body.put("presence_penalty", v));
-    config.frequencyPenalty().ifPresent(v -> body.put("frequency_penalty", v));
-    if (!config.logitBias().isEmpty()) {
-      body.set("logit_bias", MAPPER.valueToTree(config.logitBias()));
+  @Override
+  public CompletableFuture<T> handleAsync(ThreadState<T> threadState) {
+    if (config.stream()) {
+      return handleStreaming(threadState, text -> {});
     }
-    if (!config.stop().isEmpty()) {
-      body.set("stop", MAPPER.valueToTree(config.stop()));
+    Optional<byte[]> body;
+    try {
+      body = requestBody(threadState, false);
+    } catch (IOException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    if (body.isEmpty()) {
+      return CompletableFuture.completedFuture(tooLong(threadState));
     }
+    ResponseReader response = new ResponseReader();
+    return httpClient
+        .executeJson(request(body.get()), MAPPER.getFactory(), response)
+        .thenApply(
+            v -> {
+              try {
+                return response.toMessage(threadState);
+              } catch (IOException e) {
+                throw new CompletionException(e);
+              }
+            });
+  }
 
-    ArrayNode messages = MAPPER.createArrayNode();
-    messages
-            .addObject()
-            .put("role", Role.SYSTEM.toString().toLowerCase())
-            .put("content", config.systemMessage());
-    for (T message : threadState.messages()) {
-      messages
-          .addObject()
-          .put("role", message.role().toString().toLowerCase())
-          .put("content", message.message());
+  @Override
+  public CompletableFuture<T> handleStreaming(ThreadState<T> threadState, Consumer<String> onText) {
+    if (!config.stream()) {
+      return LLMPlugin.super.handleStreaming(threadState, onText);
     }
+    Optional<byte[]> body;
+    try {
+      body = requestBody(threadState, true);
+    } catch (IOException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    if (body.isEmpty()) {
+      T response = tooLong(threadState);
+      onText.accept(response.message());
+      return CompletableFuture.completedFuture(response);
+    }
+
+    StringBuilder text = new StringBuilder();
+    Instant[] created = {Instant.now()};
+    return httpClient
+        .stream(
+            request(body.get()),
+            event -> {
+              if (event.equals("[DONE]")) {
+                return;
+              }
+              JsonNode chunk;
+              try {
+                chunk = MAPPER.readTree(event);
+              } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+              }
+              // not every chunk carries every field, e.g. a final chunk with only the usage
+              JsonNode createdNode = chunk.path("created");
+              if (createdNode.canConvertToLong()) {
+                created[0] = Instant.ofEpochSecond(createdNode.longValue());
+              }
+              JsonNode content = chunk.path("choices").path(0).path("delta").path("content");
+              if (content.isTextual() && !content.textValue().isEmpty()) {
+                text.append(content.textValue());
+                onText.accept(content.textValue());
+              }
+            })
+        .thenApply(v -> threadState.newMessageFromBot(created[0], text.toString()));
+  }
+
+  private T tooLong(ThreadState<T> threadState) {
+    return threadState.newMessageFromBot(
+        Instant.now(), "I'm sorry but that request was too long for me.");
+  }
+
+  private SimpleHttpRequest request(byte[] body) {
+    return AsyncHttpClient.postJson(endpoint, body)
+        .setHeader("Authorization", "Bearer " + config.apiKey())
+        .build();
+  }
 
-    Optional<ArrayNode> prunedMessages = pruneMessages(messages, null);
+  /**
+   * @return the body of the request to OpenAI, empty if the thread does not fit in the context
+   */
+  private Optional<byte[]> requestBody(ThreadState<T> threadState, boolean stream)
+      throws IOException {
+    List<T> prunedMessages = pruneMessages(threadState.messages());
     if (prunedMessages.isEmpty()) {
-      return threadState.newMessageFromBot(
-          Instant.now(), "I'm sorry but that request was too long for me.");
+      return Optional.empty();
     }
-    body.set("messages", prunedMessages.get());
+    String user = threadState.tail().senderId().toString();
+    return Optional.of(
+        requestTemplate.render(
+            generator -> {
+              generator.writeBooleanField("stream", stream);
+              generator.writeStringField("user", user);
+              generator.writeArrayFieldStart("messages");
+              writeMessage(generator, roleName(Role.SYSTEM), config.systemMessage());
+              for (T message : prunedMessages) {
+                writeMessage(generator, roleName(message.role()), message.message());
+              }
+              generator.writeEndArray();
+            }));
+  }
 
-    String bodyString;
-    try {
-      bodyString = MAPPER.writeValueAsString(body);
-    } catch (JsonProcessingException e) {
-      throw new RuntimeException(e); // this should be impossible
+  private static void writeMessage(JsonGenerator generator, String role, String content)
+      throws IOException {
+    generator.writeStartObject();
+    generator.writeStringField("role", role);
+    generator.writeStringField("content", content);
+    generator.writeEndObject();
+  }
+
+  /**
+   * Reads the response while it is parsed, only the creation time and the content of the first
+   * choice are kept.
+   */
+  private static final class ResponseReader implements AsyncHttpClient.JsonValueVisitor {
+    private static final JsonPointer CREATED = JsonPointer.compile("/created");
+    private static final JsonPointer CONTENT = JsonPointer.compile("/choices/0/message/content");
+
+    private @Nullable Instant timestamp;
+    private @Nullable String content;
+
+    @Override
+    public void accept(JsonParser parser) throws IOException {
+      // the name is checked first so the path is only built for the few values that could match
+      @Nullable String name = parser.currentName();
+      if ("created".equals(name) && parser.getParsingContext().pathAsPointer().equals(CREATED)) {
+        timestamp = Instant.ofEpochSecond(parser.getValueAsLong());
+      } else if ("content".equals(name)
+          && parser.currentToken() == JsonToken.VALUE_STRING
+          && parser.getParsingContext().pathAsPointer().equals(CONTENT)) {
+        content = parser.getText();
+      }
+    }
+
+    private <M extends Message> M toMessage(ThreadState<M> threadState) throws IOException {
+      if (timestamp == null || content == null) {
+        throw new IOException("response must have 'created' and 'choices[0].message.content'");
+      }
+      return threadState.newMessageFromBot(timestamp, content);
     }
-    Response response =
-        Request.post(endpoint)
-            .bodyString(bodyString, ContentType.APPLICATION_JSON)
-            .setHeader("Authorization", "Bearer " + config.apiKey())
-            .execute();
-
-    JsonNode responseBody = MAPPER.readTree(response.returnContent().asBytes());
-    Instant timestamp = Instant.ofEpochSecond(responseBody.get("created").longValue());
-    JsonNode choice = responseBody.get("choices").get(0);
-    String messageContent = choice.get("message").get("content").textValue();
-    return threadState.newMessageFromBot(timestamp, messageContent);
   }
 }
@@ -0,0 +1,73 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.llm;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+
+/**
+ * The body of a request to an LLM. The fields that only depend on the plugin's config are
+ * serialized once, each request only writes its own fields with a {@link JsonGenerator} and copies
+ * the rest in as they are. The body is written into Jackson's recycled buffers.
+ */
+final class RequestTemplate {
+
+  private final JsonFactory factory;
+
+  /** the serialized fields without the surrounding braces, empty if there are none */
+  private final String constantFields;
+
+  /**
+   * @param mapper the mapper used to serialize the fields
+   * @param constant the fields that are the same in every request
+   */
+  RequestTemplate(ObjectMapper mapper, ObjectNode constant) {
+    this.factory = mapper.getFactory();
+    String json;
+    try {
+      json = mapper.writeValueAsString(constant);
+    } catch (JsonProcessingException e) {
+      throw new RuntimeException(e); // this should be impossible
+    }
+    this.constantFields = json.substring(1, json.length() - 1);
+  }
+
+  /**
+   * @param fields writes the fields of this request, the object is already started
+   * @return the UTF-8 body with the fields of the request followed by the constant fields
+   */
+  byte[] render(Fields fields) throws IOException {
+    ByteArrayBuilder bytes = new ByteArrayBuilder(factory._getBufferRecycler());
+    try (JsonGenerator generator = factory.createGenerator(bytes)) {
+      generator.writeStartObject();
+      fields.write(generator);
+      if (!constantFields.isEmpty()) {
+        // the generator does not know about the raw fields so it does not add the comma itself
+        if (generator.getOutputContext().getEntryCount() > 0) {
+          generator.writeRaw(',');
+        }
+        generator.writeRaw(constantFields);
+      }
+      generator.writeEndObject();
+    }
+    byte[] body = bytes.toByteArray();
+    bytes.release();
+    return body;
+  }
+
+  @FunctionalInterface
+  interface Fields {
+    void write(JsonGenerator generator) throws IOException;
+  }
+}
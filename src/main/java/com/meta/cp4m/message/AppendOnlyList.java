@@ -0,0 +1,118 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.message;
+
+import com.google.common.base.Preconditions;
+import java.util.AbstractList;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable list where adding an element returns a new list that shares its elements with the
+ * old one.
+ *
+ * <p>Lists derived from one another share a backing array that has room to grow. Each list only
+ * sees the slots of the array from {@code start} up to {@code end}. The first list to append at a
+ * given end claims the next free slot and writes to it in place, since no other list can see that
+ * slot. Any other list appending at the same end copies the array instead. Appending to the newest
+ * list, which is how a conversation grows, is therefore amortized O(1).
+ *
+ * <p>Dropping elements from the front only moves {@code start}. The dropped slots are released the
+ * next time the array is copied, which only copies the visible elements.
+ */
+final class AppendOnlyList<T> extends AbstractList<T> implements RandomAccess {
+  private static final int MIN_CAPACITY = 8;
+
+  private final Object[] elements;
+
+  /** shared by every list using {@link #elements}, the number of slots that have been written */
+  private final AtomicInteger claimed;
+
+  private final int start;
+  private final int end;
+
+  private AppendOnlyList(Object[] elements, AtomicInteger claimed, int start, int end) {
+    this.elements = elements;
+    this.claimed = claimed;
+    this.start = start;
+    this.end = end;
+  }
+
+  static <T> AppendOnlyList<T> of(T element) {
+    Object[] elements = new Object[MIN_CAPACITY];
+    elements[0] = Objects.requireNonNull(element);
+    return new AppendOnlyList<>(elements, new AtomicInteger(1), 0, 1);
+  }
+
+  /**
+   * Copy the visible elements into a new array with a free slot at {@code index} and room to grow.
+   *
+   * @param index where the free slot is left, {@link #size()} to leave it at the end
+   */
+  private Object[] copy(int index) {
+    int size = size();
+    Object[] copy = new Object[Math.max(MIN_CAPACITY, (size + 1) * 2)];
+    System.arraycopy(elements, start, copy, 0, index);
+    System.arraycopy(elements, start + index, copy, index + 1, size - index);
+    return copy;
+  }
+
+  /**
+   * @param element the element to add to the end of the list
+   * @return a new list with the element at the end, this list is unchanged
+   */
+  AppendOnlyList<T> append(T element) {
+    Objects.requireNonNull(element);
+    if (end < elements.length && claimed.compareAndSet(end, end + 1)) {
+      elements[end] = element;
+      return new AppendOnlyList<>(elements, claimed, start, end + 1);
+    }
+    return insert(size(), element);
+  }
+
+  /**
+   * @param index where the element is inserted, elements from this index on are shifted back one
+   * @param element the element to insert
+   * @return a new list with the element inserted, this list is unchanged
+   */
+  AppendOnlyList<T> insert(int index, T element) {
+    Objects.requireNonNull(element);
+    Preconditions.checkPositionIndex(index, size());
+    Object[] copy = copy(index);
+    copy[index] = element;
+    int size = size() + 1;
+    return new AppendOnlyList<>(copy, new AtomicInteger(size), 0, size);
+  }
+
+  /**
+   * @param count how many of the newest elements to keep
+   * @return a list of the last {@code count} elements, this list if it is not longer than that
+   */
+  AppendOnlyList<T> last(int count) {
+    Preconditions.checkArgument(count > 0, "count must be greater than zero");
+    if (count >= size()) {
+      return this;
+    }
+    return new AppendOnlyList<>(elements, claimed, end - count, end);
+  }
+
+  @Override
+  public T get(int index) {
+    Objects.checkIndex(index, size());
+    @SuppressWarnings("unchecked") // only T is ever written to elements
+    T element = (T) elements[start + index];
+    return element;
+  }
+
+  @Override
+  public int size() {
+    return end - start;
+  }
+}
@@ -9,29 +9,80 @@
 package com.meta.cp4m.message;
 
 import com.google.common.base.Preconditions;
-import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
-// TODO: make this not synchronized
-public class Deduplicator<T> {
+/**
+ * Remembers the most recent values it has seen so that repeats can be dropped.
+ *
+ * <p>Values are spread over shards by hash so that concurrent callers rarely touch the same memory.
+ * Each shard is a concurrent set of the values it remembers plus a ring buffer that records the
+ * order they were added in. When a new value takes the place of the oldest one in the ring the old
+ * value is removed from the set. No locks are taken. Eviction is first in first out within a shard,
+ * and small deduplicators have a single shard so their eviction order is exact.
+ */
+public class Deduplicator<T> implements DuplicateFilter<T> {
+
+  /** shards are only split off once each can hold at least this many values */
+  private static final int MIN_SHARD_CAPACITY = 1024;
 
-  private final int capacity;
-  private final LinkedHashSet<T> set;
+  private final Shard<T>[] shards;
+  private final int shardMask;
 
   public Deduplicator(int capacity) {
     Preconditions.checkArgument(capacity > 0);
-    this.capacity = capacity;
-    set = new LinkedHashSet<>(capacity);
+    int shardCount =
+        Math.min(
+            Integer.highestOneBit(Math.max(1, capacity / MIN_SHARD_CAPACITY)),
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4));
+    int shardCapacity = (capacity + shardCount - 1) / shardCount;
+    @SuppressWarnings("unchecked") // generic array creation
+    Shard<T>[] shards = new Shard[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = new Shard<>(shardCapacity);
+    }
+    this.shards = shards;
+    this.shardMask = shardCount - 1;
+  }
+
+  @Override
+  public boolean addAndGetIsDuplicate(T value) {
+    int hash = value.hashCode();
+    // spread the high bits so that shards are picked evenly even for poor hash codes
+    return shards[(hash ^ (hash >>> 16)) & shardMask].addAndGetIsDuplicate(value);
   }
 
-  public synchronized boolean addAndGetIsDuplicate(T value) {
-    boolean added = set.add(value);
-    if (added && set.size() > capacity) {
-      set.remove(set.iterator().next());
+  public int size() {
+    int size = 0;
+    for (Shard<T> shard : shards) {
+      size += shard.values.size();
     }
-    return !added;
+    return size;
   }
 
-  public synchronized int size() {
-    return set.size();
+  private static final class Shard<T> {
+    private final Set<T> values;
+    private final AtomicReferenceArray<T> order;
+    private final AtomicLong next = new AtomicLong();
+
+    private Shard(int capacity) {
+      this.values = ConcurrentHashMap.newKeySet(capacity);
+      this.order = new AtomicReferenceArray<>(capacity);
+    }
+
+    private boolean addAndGetIsDuplicate(T value) {
+      if (!values.add(value)) {
+        return true;
+      }
+      int slot = (int) (next.getAndIncrement() % order.length());
+      @Nullable T evicted = order.getAndSet(slot, value);
+      if (evicted != null) {
+        values.remove(evicted);
+      }
+      return false;
+    }
   }
 }
@@ -0,0 +1,41 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.message;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.meta.cp4m.Identifier;
+import com.meta.cp4m.http.AsyncHttpClient;
+
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "type")
+@JsonSubTypes({
+  @JsonSubTypes.Type(value = RecentDeduplicatorConfig.class, name = "recent"),
+  @JsonSubTypes.Type(value = TimeWindowDeduplicatorConfig.class, name = "time_window"),
+  @JsonSubTypes.Type(value = SharedDeduplicatorConfig.class, name = "shared"),
+})
+public interface DeduplicatorConfig {
+
+  /**
+   * @return the deduplication used by a handler when none is configured
+   */
+  static DeduplicatorConfig defaults() {
+    return RecentDeduplicatorConfig.of(RecentDeduplicatorConfig.DEFAULT_CAPACITY);
+  }
+
+  DuplicateFilter<Identifier> toFilter();
+
+  /**
+   * @param httpClient the client used by filters that check ids with another service, filters that
+   *     keep everything in-process ignore it
+   * @return a filter that reaches any service it needs with the given client
+   */
+  default DuplicateFilter<Identifier> toFilter(AsyncHttpClient httpClient) {
+    return toFilter();
+  }
+}
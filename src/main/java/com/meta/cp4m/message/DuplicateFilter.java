@@ -0,0 +1,19 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.message;
+
+/** Used by message handlers to drop webhook deliveries of messages that were already received */
+public interface DuplicateFilter<T> {
+
+  /**
+   * @param value the value to record
+   * @return true if the value has been seen before, false if this is the first time
+   */
+  boolean addAndGetIsDuplicate(T value);
+}
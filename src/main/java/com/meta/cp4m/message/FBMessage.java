@@ -8,14 +8,42 @@
 
 package com.meta.cp4m.message;
 
+import com.google.common.base.Preconditions;
 import com.meta.cp4m.Identifier;
 import java.time.Instant;
 
+/**
+ * @param threadId must be {@link Message#threadId(Identifier, Identifier)} of the sender and
+ *     recipient. An id that is passed in is checked against them, null has it worked out from
+ *     them instead, which is what the constructor that leaves it out does.
+ */
 public record FBMessage(
     Instant timestamp,
     Identifier instanceId,
     Identifier senderId,
     Identifier recipientId,
     String message,
-    Role role)
-    implements Message {}
+    Role role,
+    Identifier threadId)
+    implements Message {
+
+  public FBMessage {
+    if (threadId == null) {
+      threadId = Message.threadId(senderId, recipientId);
+    } else {
+      Preconditions.checkArgument(
+          Message.isThreadId(threadId, senderId, recipientId),
+          "threadId must be the thread id of the sender and recipient");
+    }
+  }
+
+  public FBMessage(
+      Instant timestamp,
+      Identifier instanceId,
+      Identifier senderId,
+      Identifier recipientId,
+      String message,
+      Role role) {
+    this(timestamp, instanceId, senderId, recipientId, message, role, null);
+  }
+}
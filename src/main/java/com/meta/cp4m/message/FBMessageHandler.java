@@ -8,24 +8,27 @@
 
 package com.meta.cp4m.message;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.meta.cp4m.Identifier;
+import com.meta.cp4m.http.AsyncHttpClient;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HandlerType;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Function;
-import org.apache.hc.client5.http.fluent.Request;
-import org.apache.hc.client5.http.fluent.Response;
-import org.apache.hc.core5.http.ContentType;
-import org.apache.hc.core5.http.HttpResponse;
 import org.apache.hc.core5.net.URIBuilder;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.common.returnsreceiver.qual.This;
@@ -41,11 +44,12 @@ public class FBMessageHandler implements MessageHandler<FBMessage> {
   private static final TextChunker CHUNKER = TextChunker.standard(2000);
 
   private final String verifyToken;
-  private final String appSecret;
+  private final HmacVerifier signatureVerifier;
 
   private final String accessToken;
+  private final AsyncHttpClient httpClient;
 
-  private final Deduplicator<Identifier> messageDeduplicator = new Deduplicator<>(10_000);
+  private final DuplicateFilter<Identifier> messageDeduplicator;
   private Function<Identifier, URI> baseURLFactory =
       pageId -> {
         try {
@@ -64,14 +68,18 @@ public class FBMessageHandler implements MessageHandler<FBMessage> {
 
   public FBMessageHandler(String verifyToken, String pageAccessToken, String appSecret) {
     this.verifyToken = verifyToken;
-    this.appSecret = appSecret;
+    this.signatureVerifier = new HmacVerifier(appSecret);
     this.accessToken = pageAccessToken;
+    this.httpClient = AsyncHttpClient.shared();
+    this.messageDeduplicator = DeduplicatorConfig.defaults().toFilter();
   }
 
-  FBMessageHandler(FBMessengerConfig config) {
+  FBMessageHandler(FBMessengerConfig config, AsyncHttpClient httpClient) {
     this.verifyToken = config.verifyToken();
-    this.appSecret = config.appSecret();
+    this.signatureVerifier = new HmacVerifier(config.appSecret());
     this.accessToken = config.pageAccessToken();
+    this.httpClient = Objects.requireNonNull(httpClient);
+    this.messageDeduplicator = config.deduplication().toFilter(httpClient);
   }
 
   @Override
@@ -113,76 +121,218 @@ public class FBMessageHandler implements MessageHandler<FBMessage> {
   @TestOnly
   String hmac(String body) {
     // TODO: refactor test so we don't need this
-    return MetaHandlerUtils.hmac(body, appSecret);
+    return signatureVerifier.hex(body.getBytes(StandardCharsets.UTF_8));
   }
 
-  private List<FBMessage> postHandler(Context ctx) throws JsonProcessingException {
-    MetaHandlerUtils.postHeaderValidator(ctx, appSecret);
+  /**
+   * The body is read with a streaming parser straight from its bytes. Only the fields needed to
+   * build a message are kept, delivery and read receipts and echoes of the page's own messages are
+   * skipped over without being built.
+   */
+  private List<FBMessage> postHandler(Context ctx) throws IOException {
+    MetaHandlerUtils.postHeaderValidator(ctx, signatureVerifier);
+    return parse(ctx.bodyAsBytes());
+  }
 
-    String bodyString = ctx.body();
-    JsonNode body = MAPPER.readTree(bodyString);
-    String object = body.get("object").textValue();
-    if (!object.equals("page")) {
-      LOGGER
-          .atWarn()
-          .setMessage("received body that has a different value for 'object' than 'page'")
-          .addKeyValue("body", bodyString)
-          .log();
-      return Collections.emptyList();
+  /** Only the signature is checked on the request thread, the body is parsed when called. */
+  @Override
+  public Callable<List<FBMessage>> accept(Context ctx) {
+    MetaHandlerUtils.postHeaderValidator(ctx, signatureVerifier);
+    byte[] body = ctx.bodyAsBytes();
+    return () -> parse(body);
+  }
+
+  private List<FBMessage> parse(byte[] body) throws IOException {
+    List<MessagingEvent> events = new ArrayList<>();
+    try (JsonParser parser = MAPPER.createParser(body)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JsonParseException(parser, "body must be an object");
+      }
+      boolean hasObject = false;
+      boolean hasEntry = false;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        parser.nextToken();
+        switch (field) {
+          case "object" -> {
+            if (!"page".equals(parser.getValueAsString())) {
+              LOGGER
+                  .atWarn()
+                  .setMessage("received body that has a different value for 'object' than 'page'")
+                  .addKeyValue("body", new String(body, StandardCharsets.UTF_8))
+                  .log();
+              return Collections.emptyList();
+            }
+            hasObject = true;
+          }
+          case "entry" -> {
+            hasEntry = true;
+            readEntries(parser, events);
+          }
+          default -> parser.skipChildren();
+        }
+      }
+      if (!hasObject || !hasEntry) {
+        throw new JsonParseException(parser, "body must have an 'object' and an 'entry'");
+      }
     }
-    // TODO: need better validation
-    JsonNode entries = body.get("entry");
+
     ArrayList<FBMessage> output = new ArrayList<>();
-    for (JsonNode entry : entries) {
-      @Nullable JsonNode messaging = entry.get("messaging");
-      if (messaging == null) {
+    for (MessagingEvent event : events) {
+      if (event.messageId == null) {
+        LOGGER
+            .atWarn()
+            .setMessage(
+                "received a message without a 'message' key, unable to handle this message type")
+            .addKeyValue("body", new String(body, StandardCharsets.UTF_8))
+            .log();
+        continue;
+      }
+      // https://developers.facebook.com/docs/messenger-platform/reference/webhook-events/messages
+      if (messageDeduplicator.addAndGetIsDuplicate(event.messageId)) {
         continue;
       }
-      for (JsonNode message : messaging) {
-
-        Identifier senderId = Identifier.from(message.get("sender").get("id").asLong());
-        Identifier recipientId = Identifier.from(message.get("recipient").get("id").asLong());
-        Instant timestamp = Instant.ofEpochMilli(message.get("timestamp").asLong());
-        @Nullable JsonNode messageObject = message.get("message");
-        if (messageObject != null) {
-          // https://developers.facebook.com/docs/messenger-platform/reference/webhook-events/messages
-          Identifier messageId = Identifier.from(messageObject.get("mid").textValue());
-          if (messageDeduplicator.addAndGetIsDuplicate(messageId)) {
-            continue;
+      if (event.text == null) {
+        LOGGER
+            .atWarn()
+            .setMessage("received message without text, unable to handle this")
+            .addKeyValue("body", new String(body, StandardCharsets.UTF_8))
+            .log();
+        continue;
+      }
+      output.add(
+          new FBMessage(
+              event.timestamp,
+              event.messageId,
+              event.senderId,
+              event.recipientId,
+              event.text,
+              Message.Role.USER));
+    }
+    return output;
+  }
+
+  private static void readEntries(JsonParser parser, List<MessagingEvent> events)
+      throws IOException {
+    if (parser.currentToken() != JsonToken.START_ARRAY) {
+      throw new JsonParseException(parser, "'entry' must be an array");
+    }
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        parser.nextToken();
+        if (!field.equals("messaging") || parser.currentToken() == JsonToken.VALUE_NULL) {
+          parser.skipChildren();
+          continue;
+        }
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+          throw new JsonParseException(parser, "'messaging' must be an array");
+        }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          @Nullable MessagingEvent event = readMessagingEvent(parser);
+          if (event != null) {
+            events.add(event);
           }
+        }
+      }
+    }
+    if (parser.currentToken() != JsonToken.END_ARRAY) {
+      throw new JsonParseException(parser, "every entry must be an object");
+    }
+  }
 
-          @Nullable JsonNode textObject = messageObject.get("text");
-          if (textObject != null && textObject.isTextual()) {
-            FBMessage m =
-                new FBMessage(
-                    timestamp,
-                    messageId,
-                    senderId,
-                    recipientId,
-                    textObject.textValue(),
-                    Message.Role.USER);
-            output.add(m);
-          } else {
-            LOGGER
-                .atWarn()
-                .setMessage("received message without text, unable to handle this")
-                .addKeyValue("body", bodyString)
-                .log();
+  /** @return the event, null if it is not one that can be replied to */
+  private static @Nullable MessagingEvent readMessagingEvent(JsonParser parser)
+      throws IOException {
+    @Nullable Long senderId = null;
+    @Nullable Long recipientId = null;
+    @Nullable Long timestamp = null;
+    boolean hasMessage = false;
+    boolean receipt = false;
+    boolean echo = false;
+    @Nullable String messageId = null;
+    @Nullable String text = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      parser.nextToken();
+      switch (field) {
+        case "sender" -> senderId = readId(parser);
+        case "recipient" -> recipientId = readId(parser);
+        case "timestamp" -> timestamp = parser.getValueAsLong();
+        case "delivery", "read" -> {
+          receipt = true;
+          parser.skipChildren();
+        }
+        case "message" -> {
+          if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "'message' must be an object");
+          }
+          hasMessage = true;
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String messageField = parser.currentName();
+            parser.nextToken();
+            switch (messageField) {
+              case "mid" -> messageId = parser.getValueAsString();
+              case "text" -> {
+                text = parser.currentToken() == JsonToken.VALUE_STRING ? parser.getText() : null;
+                parser.skipChildren();
+              }
+              case "is_echo" -> echo = parser.getValueAsBoolean();
+              default -> parser.skipChildren();
+            }
           }
-        } else {
-          LOGGER
-              .atWarn()
-              .setMessage(
-                  "received a message without a 'message' key, unable to handle this message type")
-              .addKeyValue("body", bodyString)
-              .log();
         }
+        default -> parser.skipChildren();
       }
     }
+    if ((receipt && !hasMessage) || echo) {
+      return null;
+    }
+    if (senderId == null || recipientId == null || timestamp == null) {
+      throw new JsonParseException(
+          parser, "messaging events must have a 'sender', 'recipient' and 'timestamp'");
+    }
+    if (hasMessage && messageId == null) {
+      throw new JsonParseException(parser, "messages must have a 'mid'");
+    }
+    return new MessagingEvent(
+        Identifier.from(senderId),
+        Identifier.from(recipientId),
+        Instant.ofEpochMilli(timestamp),
+        messageId == null ? null : Identifier.from(messageId),
+        text);
+  }
 
-    return output;
+  /** @return the id of an object like {@code {"id": "123"}}, null if it does not have one */
+  private static @Nullable Long readId(JsonParser parser) throws IOException {
+    if (parser.currentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return null;
+    }
+    @Nullable Long id = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      parser.nextToken();
+      if (field.equals("id") && parser.currentToken().isScalarValue()) {
+        id = parser.getValueAsLong();
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return id;
   }
 
+  /**
+   * @param messageId null if the event does not hold a message
+   * @param text null if the message does not have any text
+   */
+  private record MessagingEvent(
+      Identifier senderId,
+      Identifier recipientId,
+      Instant timestamp,
+      @Nullable Identifier messageId,
+      @Nullable String text) {}
+
   @TestOnly
   public @This FBMessageHandler baseURLFactory(Function<Identifier, URI> baseURLFactory) {
     this.baseURLFactory = Objects.requireNonNull(baseURLFactory);
@@ -190,14 +340,16 @@ public class FBMessageHandler implements MessageHandler<FBMessage> {
   }
 
   @Override
-  public void respond(FBMessage message) throws IOException {
-    List<String> chunkedText = CHUNKER.chunks(message.message()).toList();
-    for (String text : chunkedText) {
-      send(text, message.recipientId(), message.senderId());
+  public CompletableFuture<Void> respond(FBMessage message) {
+    // chunks are sent one after another so that they arrive in order
+    CompletableFuture<Void> sent = CompletableFuture.completedFuture(null);
+    for (String text : CHUNKER.chunks(message.message()).toList()) {
+      sent = sent.thenCompose(v -> send(text, message.recipientId(), message.senderId()));
     }
+    return sent;
   }
 
-  private void send(String message, Identifier recipient, Identifier sender) throws IOException {
+  private CompletableFuture<Void> send(String message, Identifier recipient, Identifier sender) {
     URI url;
     ObjectNode body = MAPPER.createObjectNode();
     body.put("messaging_type", "RESPONSE").putObject("recipient").put("id", recipient.toString());
@@ -214,23 +366,31 @@ public class FBMessageHandler implements MessageHandler<FBMessage> {
       throw new RuntimeException(e);
     }
 
-    Response response =
-        Request.post(url).bodyString(bodyString, ContentType.APPLICATION_JSON).execute();
-    HttpResponse responseContent = response.returnResponse();
-    if (responseContent.getCode() != 200) {
-      String errorMessage =
-          "received a "
-              + responseContent.getCode()
-              + " error code when attempting to reply. "
-              + responseContent.getReasonPhrase();
-
-      LOGGER.atError().addKeyValue("body", bodyString).setMessage(errorMessage).log();
-      throw new IOException(
-          "received a "
-              + responseContent.getCode()
-              + " error code when attempting to reply. "
-              + responseContent.getReasonPhrase());
-    }
+    return httpClient
+        .execute(AsyncHttpClient.postJson(url, bodyString).build())
+        .thenAccept(
+            response -> {
+              if (response.getCode() != 200) {
+                String errorMessage =
+                    "received a "
+                        + response.getCode()
+                        + " error code when attempting to reply. "
+                        + response.getReasonPhrase();
+
+                LOGGER.atError().addKeyValue("body", bodyString).setMessage(errorMessage).log();
+                throw new CompletionException(new IOException(errorMessage));
+              }
+            });
+  }
+
+  @Override
+  public TextChunker textChunker() {
+    return CHUNKER;
+  }
+
+  @Override
+  public boolean handles(Message message) {
+    return message instanceof FBMessage;
   }
 
   @Override
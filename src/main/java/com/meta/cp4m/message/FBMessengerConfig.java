@@ -10,7 +10,9 @@ package com.meta.cp4m.message;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Preconditions;
+import com.meta.cp4m.http.AsyncHttpClient;
 import java.util.UUID;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 public class FBMessengerConfig implements HandlerConfig {
 
@@ -18,12 +20,14 @@ public class FBMessengerConfig implements HandlerConfig {
   private final String verifyToken;
   private final String appSecret;
   private final String pageAccessToken;
+  private final DeduplicatorConfig deduplication;
 
   private FBMessengerConfig(
       @JsonProperty("name") String name,
       @JsonProperty("verify_token") String verifyToken,
       @JsonProperty("app_secret") String appSecret,
-      @JsonProperty("page_access_token") String pageAccessToken) {
+      @JsonProperty("page_access_token") String pageAccessToken,
+      @JsonProperty("deduplication") @Nullable DeduplicatorConfig deduplication) {
 
     Preconditions.checkArgument(name != null && !name.isBlank(), "name cannot be blank");
     Preconditions.checkArgument(
@@ -37,12 +41,13 @@ public class FBMessengerConfig implements HandlerConfig {
     this.verifyToken = verifyToken;
     this.appSecret = appSecret;
     this.pageAccessToken = pageAccessToken;
+    this.deduplication = deduplication == null ? DeduplicatorConfig.defaults() : deduplication;
   }
 
   public static FBMessengerConfig of(String verifyToken, String appSecret, String pageAccessToken) {
     // human readability of the name only matters when it's coming from a config
     return new FBMessengerConfig(
-        UUID.randomUUID().toString(), verifyToken, appSecret, pageAccessToken);
+        UUID.randomUUID().toString(), verifyToken, appSecret, pageAccessToken, null);
   }
 
   @Override
@@ -60,10 +65,19 @@ public class FBMessengerConfig implements HandlerConfig {
 
   @Override
   public FBMessageHandler toMessageHandler() {
-    return new FBMessageHandler(this);
+    return toMessageHandler(AsyncHttpClient.shared());
+  }
+
+  @Override
+  public FBMessageHandler toMessageHandler(AsyncHttpClient httpClient) {
+    return new FBMessageHandler(this, httpClient);
   }
 
   public String pageAccessToken() {
     return pageAccessToken;
   }
+
+  public DeduplicatorConfig deduplication() {
+    return deduplication;
+  }
 }
@@ -10,6 +10,7 @@ package com.meta.cp4m.message;
 
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.meta.cp4m.http.AsyncHttpClient;
 
 @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "type")
 @JsonSubTypes({
@@ -19,5 +20,14 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo;
 public interface HandlerConfig {
   String name();
 
+  /**
+   * @return a handler that sends its responses with the {@link AsyncHttpClient#shared()} client
+   */
   MessageHandler<?> toMessageHandler();
+
+  /**
+   * @param httpClient the client used to send responses
+   * @return a handler that sends its responses with the given client
+   */
+  MessageHandler<?> toMessageHandler(AsyncHttpClient httpClient);
 }
@@ -0,0 +1,98 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.message;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Checks the HMAC-SHA256 signature Meta sends with every webhook in the X-Hub-Signature-256 header.
+ *
+ * <p>Looking up and initializing a {@link Mac} costs more than signing a typical webhook body, so
+ * initialized instances are kept in a pool and reused. A pool rather than a thread local because
+ * requests may be handled on virtual threads, it only ever holds as many instances as there have
+ * been concurrent requests. The expected signature is decoded from hex and compared in constant
+ * time.
+ */
+final class HmacVerifier {
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final String PREFIX = "sha256=";
+  private static final int SIGNATURE_BYTES = 32;
+
+  private final SecretKeySpec key;
+  private final Queue<Mac> macs = new ConcurrentLinkedQueue<>();
+
+  HmacVerifier(String appSecret) {
+    this.key = new SecretKeySpec(appSecret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    // fail on construction rather than on the first request
+    macs.add(newMac());
+  }
+
+  private Mac newMac() {
+    try {
+      Mac mac = Mac.getInstance(ALGORITHM);
+      mac.init(key);
+      return mac;
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+      throw new RuntimeException(e); // Algorithms guaranteed to exist
+    }
+  }
+
+  /**
+   * @param body the bytes to sign
+   * @return the signature of the body
+   */
+  byte[] sign(byte[] body) {
+    Mac mac = macs.poll();
+    if (mac == null) {
+      mac = newMac();
+    }
+    try {
+      // doFinal leaves the mac ready to be used again
+      return mac.doFinal(body);
+    } finally {
+      macs.offer(mac);
+    }
+  }
+
+  /**
+   * @param body the bytes to sign
+   * @return the signature of the body as lowercase hex, the way Meta sends it
+   */
+  String hex(byte[] body) {
+    return HexFormat.of().formatHex(sign(body));
+  }
+
+  /**
+   * @param body the request body
+   * @param header the value of the X-Hub-Signature-256 header, {@code sha256=<hex signature>}
+   * @return true if the header holds the signature of the body
+   */
+  boolean verify(byte[] body, String header) {
+    String stripped = header.strip();
+    if (!stripped.startsWith(PREFIX)
+        || stripped.length() != PREFIX.length() + SIGNATURE_BYTES * 2) {
+      return false;
+    }
+    byte[] expected;
+    try {
+      expected = HexFormat.of().parseHex(stripped, PREFIX.length(), stripped.length());
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    return MessageDigest.isEqual(expected, sign(body));
+  }
+}
@@ -15,9 +15,20 @@ public interface Message {
 
   static Identifier threadId(Identifier id1, Identifier id2) {
     if (id1.compareTo(id2) <= 0) {
-      return Identifier.from(id1.toString() + '|' + id2);
+      return Identifier.join(id1, '|', id2);
     }
-    return Identifier.from(id2.toString() + '|' + id1);
+    return Identifier.join(id2, '|', id1);
+  }
+
+  /**
+   * @return true if {@code threadId} is {@link #threadId(Identifier, Identifier)} of the two ids,
+   *     without building it
+   */
+  static boolean isThreadId(Identifier threadId, Identifier id1, Identifier id2) {
+    if (id1.compareTo(id2) <= 0) {
+      return threadId.isJoin(id1, '|', id2);
+    }
+    return threadId.isJoin(id2, '|', id1);
   }
 
   Instant timestamp();
@@ -32,9 +43,8 @@ public interface Message {
 
   Role role();
 
-  default Identifier threadId() {
-    return threadId(senderId(), recipientId());
-  }
+  /** the same for every message between two parties, whichever of them sent it */
+  Identifier threadId();
 
   enum Role {
     ASSISTANT,
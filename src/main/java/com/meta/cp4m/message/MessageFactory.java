@@ -15,15 +15,18 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 @FunctionalInterface
 public interface MessageFactory<T extends Message> {
   Map<Class<? extends Message>, MessageFactory<? extends Message>> FACTORY_MAP =
       Stream.<FactoryContainer<?>>of(
               new FactoryContainer<>(
-                  FBMessage.class, (t, m, si, ri, ii, r) -> new FBMessage(t, ii, si, ri, m, r)),
+                  FBMessage.class,
+                  (t, m, si, ri, ii, r, ti) -> new FBMessage(t, ii, si, ri, m, r, ti)),
               new FactoryContainer<>(
-                  WAMessage.class, (t, m, si, ri, ii, r) -> new WAMessage(t, ii, si, ri, m, r)))
+                  WAMessage.class,
+                  (t, m, si, ri, ii, r, ti) -> new WAMessage(t, ii, si, ri, m, r, ti)))
           .collect(
               Collectors.toUnmodifiableMap(FactoryContainer::clazz, FactoryContainer::factory));
 
@@ -40,13 +43,31 @@ public interface MessageFactory<T extends Message> {
     return instance(clazz);
   }
 
+  default T newMessage(
+      Instant timestamp,
+      String message,
+      Identifier senderId,
+      Identifier recipientId,
+      Identifier instanceId,
+      Role role) {
+    return newMessage(timestamp, message, senderId, recipientId, instanceId, role, null);
+  }
+
+  /**
+   * For callers that already know the thread the message belongs to, so the thread id is not
+   * worked out again.
+   *
+   * @param threadId must be {@link Message#threadId(Identifier, Identifier)} of the sender and
+   *     recipient, or null to have it worked out from them
+   */
   T newMessage(
       Instant timestamp,
       String message,
       Identifier senderId,
       Identifier recipientId,
       Identifier instanceId,
-      Role role);
+      Role role,
+      @Nullable Identifier threadId);
 
   /** this exists to provide compiler guarantees for type matching in the FACTORY_MAP */
   record FactoryContainer<T extends Message>(Class<T> clazz, MessageFactory<T> factory) {}
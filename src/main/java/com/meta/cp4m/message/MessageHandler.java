@@ -10,9 +10,10 @@ package com.meta.cp4m.message;
 
 import io.javalin.http.Context;
 import io.javalin.http.HandlerType;
-import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 public interface MessageHandler<T extends Message> {
 
@@ -24,12 +25,47 @@ public interface MessageHandler<T extends Message> {
    */
   List<T> processRequest(Context ctx);
 
+  /**
+   * Check that a POST request came from the messaging service and keep what is needed to process
+   * it once the request has been answered. Handlers that can verify a request without parsing it
+   * override this so that the request is acknowledged right away, by default the request is
+   * processed before this returns.
+   *
+   * @param ctx the context corresponding to an incoming POST request
+   * @return works out the messages in the request, may be called on another thread after the
+   *     request has been answered
+   */
+  default Callable<List<T>> accept(Context ctx) {
+    List<T> messages = processRequest(ctx);
+    return () -> messages;
+  }
+
   /**
    * The method needed to respond to a message from a user
    *
    * @param message the response
+   * @return a future that completes once the response has been delivered, or completes
+   *     exceptionally with an {@link java.io.IOException} if it could not be
+   */
+  CompletableFuture<Void> respond(T message);
+
+  /**
+   * A store can be shared by services on different platforms, so it can hold conversations this
+   * handler cannot answer.
+   *
+   * @param message the last message of a conversation read back from the store
+   * @return true if the message is of the type this handler sends and receives
+   */
+  default boolean handles(Message message) {
+    return true;
+  }
+
+  /**
+   * @return how {@link #respond} splits a response that is too long for a single message
    */
-  void respond(T message) throws IOException;
+  default TextChunker textChunker() {
+    return TextChunker.from(Integer.MAX_VALUE);
+  }
 
   /**
    * @return The different {@link HandlerType}s that this handler expects to receive
@@ -11,11 +11,6 @@ package com.meta.cp4m.message;
 import io.javalin.http.Context;
 import io.javalin.http.ForbiddenResponse;
 import java.nio.charset.StandardCharsets;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-import org.apache.hc.client5.http.utils.Hex;
 
 class MetaHandlerUtils {
   static void subscriptionVerification(Context ctx, String verifyToken) {
@@ -28,20 +23,11 @@ class MetaHandlerUtils {
   }
 
   static String hmac(String body, String appSecret) {
-    Mac sha256HMAC;
-    SecretKeySpec secretKey;
-    try {
-      sha256HMAC = Mac.getInstance("HmacSHA256");
-      secretKey = new SecretKeySpec(appSecret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
-      sha256HMAC.init(secretKey);
-    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
-      throw new RuntimeException(e); // Algorithms guaranteed to exist
-    }
-    return Hex.encodeHexString(sha256HMAC.doFinal(body.getBytes(StandardCharsets.UTF_8)));
+    return new HmacVerifier(appSecret).hex(body.getBytes(StandardCharsets.UTF_8));
   }
 
   /**
-   * Use the appSecret to validate that the value set in X-Hub-Signature-256 is correct. Throws a
+   * Use the app secret to validate that the value set in X-Hub-Signature-256 is correct. Throws a
    * Javalin {@link io.javalin.validation.ValidationError} if the header is not valid
    *
    * <p><a
@@ -49,19 +35,12 @@ class MetaHandlerUtils {
    * documentation on this process</a>
    *
    * @param ctx Javalin context corresponding to this post request
-   * @param appSecret app secret corresponding to this app
+   * @param verifier holds the app secret corresponding to this app
    */
-  static void postHeaderValidator(Context ctx, String appSecret) {
+  static void postHeaderValidator(Context ctx, HmacVerifier verifier) {
     ctx.headerAsClass("X-Hub-Signature-256", String.class)
         .check(
-            h -> {
-              String[] hashParts = h.strip().split("=");
-              if (hashParts.length != 2) {
-                return false;
-              }
-              String calculatedHmac = hmac(ctx.body(), appSecret);
-              return hashParts[1].equals(calculatedHmac);
-            },
+            h -> verifier.verify(ctx.bodyAsBytes(), h),
             "X-Hub-Signature-256 could not be validated")
         .getOrThrow(ignored -> new ForbiddenResponse("X-Hub-Signature-256 could not be validated"));
   }
@@ -0,0 +1,42 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.message;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.meta.cp4m.Identifier;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/** Remembers a fixed number of the most recent message ids */
+public class RecentDeduplicatorConfig implements DeduplicatorConfig {
+  static final int DEFAULT_CAPACITY = 10_000;
+
+  private final int capacity;
+
+  @JsonCreator
+  private RecentDeduplicatorConfig(@JsonProperty("capacity") @Nullable Integer capacity) {
+    Preconditions.checkArgument(
+        capacity == null || capacity > 0, "capacity must be greater than zero");
+    this.capacity = capacity == null ? DEFAULT_CAPACITY : capacity;
+  }
+
+  public static RecentDeduplicatorConfig of(int capacity) {
+    return new RecentDeduplicatorConfig(capacity);
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  @Override
+  public Deduplicator<Identifier> toFilter() {
+    return new Deduplicator<>(capacity);
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.message;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
+import com.meta.cp4m.Identifier;
+import com.meta.cp4m.http.AsyncHttpClient;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers message ids in a key-value service shared by every CP4M instance, so that a webhook
+ * retry is dropped even when it is delivered to a different instance than the original.
+ *
+ * <p>Ids that are waiting to be checked are sent to the service together in one request. A single
+ * sender thread takes everything that is waiting, up to the batch size, whenever fewer than the
+ * maximum number of requests are in flight. Under load ids pile up while the requests in flight are
+ * answered, so the number of round trips grows with the request rate of the service rather than
+ * the message rate.
+ *
+ * <p>The service is sent {@code {"ttl_seconds": 86400, "ids": ["a", "b"]}} and has to record each
+ * id that it does not already hold for the ttl, answering {@code {"duplicates": [false, true]}} in
+ * the same order. This is a single {@code SET NX EX} per id in front of Redis or Memcached.
+ *
+ * <p>Ids are first checked against a small in-process {@link Deduplicator} so retries that land on
+ * the same instance never leave it. If the service cannot be reached in time the id is treated as
+ * new, a duplicate reply is preferable to dropping a message.
+ */
+public class SharedDeduplicator implements DuplicateFilter<Identifier> {
+
+  private static final JsonMapper MAPPER = new JsonMapper();
+  private static final Logger LOGGER = LoggerFactory.getLogger(SharedDeduplicator.class);
+
+  private final URI endpoint;
+  private final AsyncHttpClient httpClient;
+  private final long ttlSeconds;
+  private final int maxBatchSize;
+  private final Duration timeout;
+  private final Deduplicator<Identifier> local;
+  private final Semaphore inFlight;
+  private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+
+  /**
+   * @param endpoint where batches of ids are sent
+   * @param httpClient the client used to reach the endpoint
+   * @param ttl how long the service should remember each id
+   * @param maxBatchSize the most ids sent in one request
+   * @param maxInFlight the most requests waiting for an answer at once
+   * @param timeout how long to wait for an answer before treating the ids as new
+   * @param localCapacity how many ids are also remembered in-process
+   */
+  public SharedDeduplicator(
+      URI endpoint,
+      AsyncHttpClient httpClient,
+      Duration ttl,
+      int maxBatchSize,
+      int maxInFlight,
+      Duration timeout,
+      int localCapacity) {
+    Preconditions.checkArgument(ttl.toSeconds() > 0, "ttl must be at least one second");
+    Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be greater than zero");
+    Preconditions.checkArgument(maxInFlight > 0, "maxInFlight must be greater than zero");
+    Preconditions.checkArgument(timeout.isPositive(), "timeout must be greater than zero");
+    this.endpoint = endpoint;
+    this.httpClient = httpClient;
+    this.ttlSeconds = ttl.toSeconds();
+    this.maxBatchSize = maxBatchSize;
+    this.timeout = timeout;
+    this.local = new Deduplicator<>(localCapacity);
+    this.inFlight = new Semaphore(maxInFlight);
+
+    Thread sender = new Thread(this::sendLoop, "cp4m-dedup-sender-" + endpoint.getHost());
+    sender.setDaemon(true);
+    sender.start();
+  }
+
+  @Override
+  public boolean addAndGetIsDuplicate(Identifier value) {
+    if (local.addAndGetIsDuplicate(value)) {
+      return true;
+    }
+    Pending p = new Pending(value, new CompletableFuture<>());
+    pending.add(p);
+    // waiting in the queue counts against the timeout too
+    return p.duplicate.completeOnTimeout(false, timeout.toMillis(), TimeUnit.MILLISECONDS).join();
+  }
+
+  private void sendLoop() {
+    while (true) {
+      List<Pending> batch = new ArrayList<>();
+      try {
+        inFlight.acquire();
+        batch.add(pending.take());
+      } catch (InterruptedException e) {
+        return;
+      }
+      pending.drainTo(batch, maxBatchSize - 1);
+      CompletableFuture<Void> sent;
+      try {
+        sent = send(batch);
+      } catch (RuntimeException e) {
+        // e.g. the client has been closed, the sender has to keep going for the next batch
+        treatAsNew(batch, e);
+        sent = CompletableFuture.completedFuture(null);
+      }
+      sent.whenComplete((ignored, e) -> inFlight.release());
+    }
+  }
+
+  private CompletableFuture<Void> send(List<Pending> batch) {
+    ObjectNode body = MAPPER.createObjectNode().put("ttl_seconds", ttlSeconds);
+    ArrayNode ids = body.putArray("ids");
+    batch.forEach(p -> ids.add(p.id.toString()));
+    SimpleHttpRequest request;
+    try {
+      request = AsyncHttpClient.postJson(endpoint, MAPPER.writeValueAsString(body)).build();
+    } catch (IOException e) {
+      // serializing a list of strings can't fail
+      throw new RuntimeException(e);
+    }
+    return httpClient
+        .execute(request)
+        .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+        .thenApply(
+            response -> {
+              try {
+                return MAPPER.readTree(AsyncHttpClient.returnContent(response));
+              } catch (IOException e) {
+                throw new RuntimeException(e);
+              }
+            })
+        .handle(
+            (response, e) -> {
+              @Nullable JsonNode duplicates = response == null ? null : response.get("duplicates");
+              if (duplicates == null
+                  || !duplicates.isArray()
+                  || duplicates.size() != batch.size()) {
+                treatAsNew(batch, e);
+                return null;
+              }
+              for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).duplicate.complete(duplicates.get(i).asBoolean());
+              }
+              return null;
+            });
+  }
+
+  private void treatAsNew(List<Pending> batch, @Nullable Throwable cause) {
+    LOGGER
+        .atWarn()
+        .setMessage("unable to reach the shared deduplication store, ids are new")
+        .addKeyValue("endpoint", endpoint)
+        .addKeyValue("ids", batch.size())
+        .setCause(cause)
+        .log();
+    batch.forEach(p -> p.duplicate.complete(false));
+  }
+
+  private record Pending(Identifier id, CompletableFuture<Boolean> duplicate) {}
+}
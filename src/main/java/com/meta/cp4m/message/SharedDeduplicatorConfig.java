@@ -0,0 +1,106 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.message;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.meta.cp4m.Identifier;
+import com.meta.cp4m.http.AsyncHttpClient;
+import java.net.URI;
+import java.time.Duration;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Remembers message ids in a key-value service shared by every CP4M instance, see {@link
+ * SharedDeduplicator}
+ */
+public class SharedDeduplicatorConfig implements DeduplicatorConfig {
+  private static final long DEFAULT_TTL_HOURS = 24;
+  private static final int DEFAULT_MAX_BATCH_SIZE = 256;
+  private static final int DEFAULT_MAX_IN_FLIGHT = 4;
+  private static final long DEFAULT_TIMEOUT_MS = 1000;
+
+  private final URI url;
+  private final Duration ttl;
+  private final int maxBatchSize;
+  private final int maxInFlight;
+  private final Duration timeout;
+  private final int localCapacity;
+
+  @JsonCreator
+  private SharedDeduplicatorConfig(
+      @JsonProperty("url") String url,
+      @JsonProperty("ttl_hours") @Nullable Long ttlHours,
+      @JsonProperty("max_batch_size") @Nullable Integer maxBatchSize,
+      @JsonProperty("max_in_flight") @Nullable Integer maxInFlight,
+      @JsonProperty("timeout_ms") @Nullable Long timeoutMs,
+      @JsonProperty("local_capacity") @Nullable Integer localCapacity) {
+    Preconditions.checkArgument(url != null && !url.isBlank(), "url cannot be blank");
+    Preconditions.checkArgument(
+        ttlHours == null || ttlHours > 0, "ttl_hours must be greater than zero");
+    Preconditions.checkArgument(
+        maxBatchSize == null || maxBatchSize > 0, "max_batch_size must be greater than zero");
+    Preconditions.checkArgument(
+        maxInFlight == null || maxInFlight > 0, "max_in_flight must be greater than zero");
+    Preconditions.checkArgument(
+        timeoutMs == null || timeoutMs > 0, "timeout_ms must be greater than zero");
+    Preconditions.checkArgument(
+        localCapacity == null || localCapacity > 0, "local_capacity must be greater than zero");
+    this.url = URI.create(url);
+    Preconditions.checkArgument(
+        this.url.getScheme() != null && this.url.getHost() != null, "url must be absolute");
+    this.ttl = Duration.ofHours(ttlHours == null ? DEFAULT_TTL_HOURS : ttlHours);
+    this.maxBatchSize = maxBatchSize == null ? DEFAULT_MAX_BATCH_SIZE : maxBatchSize;
+    this.maxInFlight = maxInFlight == null ? DEFAULT_MAX_IN_FLIGHT : maxInFlight;
+    this.timeout = Duration.ofMillis(timeoutMs == null ? DEFAULT_TIMEOUT_MS : timeoutMs);
+    this.localCapacity =
+        localCapacity == null ? RecentDeduplicatorConfig.DEFAULT_CAPACITY : localCapacity;
+  }
+
+  public static SharedDeduplicatorConfig of(URI url) {
+    return new SharedDeduplicatorConfig(url.toString(), null, null, null, null, null);
+  }
+
+  public URI url() {
+    return url;
+  }
+
+  public Duration ttl() {
+    return ttl;
+  }
+
+  public int maxBatchSize() {
+    return maxBatchSize;
+  }
+
+  public int maxInFlight() {
+    return maxInFlight;
+  }
+
+  public Duration timeout() {
+    return timeout;
+  }
+
+  /** the number of ids also remembered in-process, these never need a round trip */
+  public int localCapacity() {
+    return localCapacity;
+  }
+
+  @Override
+  public SharedDeduplicator toFilter() {
+    return toFilter(AsyncHttpClient.shared());
+  }
+
+  @Override
+  public SharedDeduplicator toFilter(AsyncHttpClient httpClient) {
+    return new SharedDeduplicator(
+        url, httpClient, ttl, maxBatchSize, maxInFlight, timeout, localCapacity);
+  }
+}
@@ -14,6 +14,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 import org.checkerframework.common.reflection.qual.NewInstance;
@@ -28,6 +29,11 @@ import org.checkerframework.common.reflection.qual.NewInstance;
  */
 public class TextChunker {
 
+  /** two line breaks with nothing but a bounded run of other whitespace between them */
+  private static final Pattern PARAGRAPH = Pattern.compile("\n[ \\t\\x0B\\f\\r]{0,64}\n");
+
+  private static final int MAX_PARAGRAPH_LENGTH = 66;
+
   private final int maxCharsPerChunk;
   private final List<Pattern> regex;
 
@@ -94,6 +100,36 @@ public class TextChunker {
     return Stream.of(text);
   }
 
+  /**
+   * @return an {@link Incremental} chunker that releases text at the end of each paragraph
+   */
+  public Incremental incremental() {
+    return incremental(PARAGRAPH, MAX_PARAGRAPH_LENGTH);
+  }
+
+  /**
+   * Every piece of text added searches all of the held back text for the boundary again, use
+   * {@link #incremental(Pattern, int)} if the length of a match is bounded.
+   *
+   * @param boundary text is released once it is followed by a match of this pattern
+   * @return a chunker for text that arrives a piece at a time
+   */
+  public Incremental incremental(Pattern boundary) {
+    return incremental(boundary, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param boundary text is released once it is followed by a match of this pattern
+   * @param maxBoundaryLength the longest text the pattern can match, the search for the boundary
+   *     only goes back this far into text that has already been searched
+   * @return a chunker for text that arrives a piece at a time
+   */
+  public Incremental incremental(Pattern boundary, int maxBoundaryLength) {
+    Preconditions.checkArgument(
+        maxBoundaryLength > 0, "maxBoundaryLength must be greater than zero");
+    return new Incremental(boundary, maxBoundaryLength);
+  }
+
   public Stream<String> chunks(String text) {
     Stream<String> stream = Stream.of(text.strip());
     for (Pattern r : regex) {
@@ -103,4 +139,71 @@ public class TextChunker {
 
     return stream;
   }
+
+  /**
+   * Chunks text that arrives a piece at a time, e.g. tokens streamed from an LLM. Text is held back
+   * until a boundary is seen, then everything before the boundary is released as chunks. If the
+   * held back text grows beyond a single chunk all but the last, possibly incomplete, chunk are
+   * released.
+   */
+  public final class Incremental {
+    private final Pattern boundary;
+    private final int maxBoundaryLength;
+    private final StringBuilder buffer = new StringBuilder();
+
+    /** the held back text before this has been searched for the boundary without a match */
+    private int searched = 0;
+
+    private Incremental(Pattern boundary, int maxBoundaryLength) {
+      this.boundary = boundary;
+      this.maxBoundaryLength = maxBoundaryLength;
+    }
+
+    /**
+     * @param text the next piece of text
+     * @return the chunks that are complete now that this text has been added
+     */
+    public List<String> append(String text) {
+      // a new match has to end in the new text, so it starts at most this far back
+      int from = Math.max(0, searched - (maxBoundaryLength - 1));
+      buffer.append(text);
+      List<String> out = new ArrayList<>();
+      Matcher matcher =
+          boundary
+              .matcher(buffer)
+              .region(from, buffer.length())
+              .useTransparentBounds(true)
+              .useAnchoringBounds(false);
+      int start = -1;
+      int end = -1;
+      while (matcher.find()) {
+        start = matcher.start();
+        end = matcher.end();
+      }
+      if (end >= 0) {
+        chunks(buffer.substring(0, start)).filter(c -> !c.isBlank()).forEach(out::add);
+        buffer.delete(0, end);
+      }
+      if (buffer.length() > maxCharsPerChunk) {
+        List<String> chunks = chunks(buffer.toString()).toList();
+        // the last chunk may be continued by the next piece of text, it is kept as it is in the
+        // buffer since chunks are stripped and a trailing space still separates it from the next
+        String last = chunks.get(chunks.size() - 1);
+        chunks.subList(0, chunks.size() - 1).stream().filter(c -> !c.isBlank()).forEach(out::add);
+        buffer.delete(0, buffer.lastIndexOf(last));
+      }
+      searched = buffer.length();
+      return out;
+    }
+
+    /**
+     * @return the remaining chunks, call once all text has been added
+     */
+    public List<String> finish() {
+      List<String> out = chunks(buffer.toString()).filter(c -> !c.isBlank()).toList();
+      buffer.setLength(0);
+      searched = 0;
+      return out;
+    }
+  }
 }
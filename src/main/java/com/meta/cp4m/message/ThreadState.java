@@ -9,23 +9,20 @@
 package com.meta.cp4m.message;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
 import com.meta.cp4m.Identifier;
 import com.meta.cp4m.message.Message.Role;
 import java.time.Instant;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class ThreadState<T extends Message> {
-  private final List<T> messages;
+  private final AppendOnlyList<T> messages;
   private final MessageFactory<T> messageFactory;
 
   private ThreadState(T message) {
     Objects.requireNonNull(message);
     Preconditions.checkArgument(
         message.role() != Role.SYSTEM, "ThreadState should never hold a system message");
-    this.messages = ImmutableList.of(message);
+    this.messages = AppendOnlyList.of(message);
     messageFactory = MessageFactory.instance(message);
   }
 
@@ -38,14 +35,11 @@ public class ThreadState<T extends Message> {
     Preconditions.checkArgument(
         old.tail().threadId().equals(newMessage.threadId()),
         "all messages in a thread must have the same thread id");
-    List<T> messages = old.messages;
     if (newMessage.timestamp().isBefore(old.tail().timestamp())) {
-      this.messages =
-          Stream.concat(messages.stream(), Stream.of(newMessage))
-              .sorted(Comparator.comparing(Message::timestamp))
-              .collect(Collectors.toUnmodifiableList());
+      this.messages = old.messages.insert(insertionPoint(old.messages, newMessage), newMessage);
     } else {
-      this.messages = ImmutableList.<T>builder().addAll(messages).add(newMessage).build();
+      // shares the messages with the old state rather than copying them
+      this.messages = old.messages.append(newMessage);
     }
 
     Preconditions.checkArgument(
@@ -53,6 +47,25 @@ public class ThreadState<T extends Message> {
         "userId and botId not consistent with this thread state");
   }
 
+  /** Constructor that exists to support the retainLast method */
+  private ThreadState(ThreadState<T> old, AppendOnlyList<T> messages) {
+    this.messageFactory = old.messageFactory;
+    this.messages = messages;
+  }
+
+  /**
+   * Late messages almost always belong near the end so the search starts there
+   *
+   * @return the index after the last message that is not after the given message
+   */
+  private static <T extends Message> int insertionPoint(List<T> messages, T message) {
+    int index = messages.size();
+    while (index > 0 && messages.get(index - 1).timestamp().isAfter(message.timestamp())) {
+      index--;
+    }
+    return index;
+  }
+
   public static <T extends Message> ThreadState<T> of(T message) {
     return new ThreadState<>(message);
   }
@@ -79,17 +92,40 @@ public class ThreadState<T extends Message> {
 
   public T newMessageFromBot(Instant timestamp, String message) {
     return messageFactory.newMessage(
-        timestamp, message, botId(), userId(), Identifier.random(), Role.ASSISTANT);
+        timestamp,
+        message,
+        botId(),
+        userId(),
+        Identifier.random(),
+        Role.ASSISTANT,
+        tail().threadId());
   }
 
   public T newMessageFromUser(Instant timestamp, String message, Identifier instanceId) {
-    return messageFactory.newMessage(timestamp, message, userId(), botId(), instanceId, Role.USER);
+    return messageFactory.newMessage(
+        timestamp, message, userId(), botId(), instanceId, Role.USER, tail().threadId());
   }
 
   public ThreadState<T> with(T message) {
     return new ThreadState<>(this, message);
   }
 
+  /**
+   * Older messages are dropped without being copied, the thread keeps sharing its messages with
+   * this one.
+   *
+   * @param maxMessages the maximum number of messages to keep
+   * @return a thread with only the newest {@code maxMessages} messages, or this thread if it does
+   *     not have more than that
+   */
+  public ThreadState<T> retainLast(int maxMessages) {
+    Preconditions.checkArgument(maxMessages > 0, "maxMessages must be greater than zero");
+    if (messages.size() <= maxMessages) {
+      return this;
+    }
+    return new ThreadState<>(this, messages.last(maxMessages));
+  }
+
   public List<T> messages() {
     return messages;
   }
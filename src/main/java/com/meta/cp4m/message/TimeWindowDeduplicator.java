@@ -0,0 +1,119 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.message;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Remembers every value seen within a window of time using a fixed amount of memory, no matter how
+ * many values there are.
+ *
+ * <p>The window is split into {@value #GENERATIONS} generations, each with its own Bloom filter.
+ * New values go into the newest filter and lookups check all of them. When a generation is over the
+ * oldest filter is dropped and an empty one takes the newest spot. One extra filter is kept so a
+ * value is remembered for at least the full window, and for at most a generation longer.
+ *
+ * <p>A Bloom filter can mistake a new value for one it has seen, in which case the value is
+ * reported as a duplicate. The chance of that happening is kept at the given false positive rate as
+ * long as no more than the expected number of values arrive per window, and no more than half of
+ * them within a single generation. It never misses a real duplicate within the window.
+ */
+public class TimeWindowDeduplicator<T> implements DuplicateFilter<T> {
+
+  static final int GENERATIONS = 4;
+
+  private final Funnel<? super T> funnel;
+  private final long expectedPerGeneration;
+  private final double falsePositiveRatePerFilter;
+  private final long generationNanos;
+  private final Ticker ticker;
+  private final AtomicReference<Filters<T>> filters;
+
+  public TimeWindowDeduplicator(
+      Funnel<? super T> funnel, Duration window, long expectedPerWindow, double falsePositiveRate) {
+    this(funnel, window, expectedPerWindow, falsePositiveRate, Ticker.systemTicker());
+  }
+
+  TimeWindowDeduplicator(
+      Funnel<? super T> funnel,
+      Duration window,
+      long expectedPerWindow,
+      double falsePositiveRate,
+      Ticker ticker) {
+    Preconditions.checkArgument(
+        window.toNanos() >= GENERATIONS, "window must be greater than zero");
+    Preconditions.checkArgument(
+        expectedPerWindow > 0, "expectedPerWindow must be greater than zero");
+    Preconditions.checkArgument(
+        falsePositiveRate > 0 && falsePositiveRate < 1,
+        "falsePositiveRate must be between zero and one");
+    this.funnel = funnel;
+    // traffic is rarely even, each generation has room for half of the window's values
+    this.expectedPerGeneration = Math.max(1, expectedPerWindow / 2);
+    // a lookup checks every filter so each gets an equal share of the overall rate
+    this.falsePositiveRatePerFilter = falsePositiveRate / (GENERATIONS + 1);
+    this.generationNanos = window.toNanos() / GENERATIONS;
+    this.ticker = ticker;
+
+    @SuppressWarnings("unchecked") // generic array creation
+    BloomFilter<T>[] initial = new BloomFilter[GENERATIONS + 1];
+    for (int i = 0; i < initial.length; i++) {
+      initial[i] = newFilter();
+    }
+    this.filters = new AtomicReference<>(new Filters<>(initial, ticker.read()));
+  }
+
+  private BloomFilter<T> newFilter() {
+    return BloomFilter.create(funnel, expectedPerGeneration, falsePositiveRatePerFilter);
+  }
+
+  @Override
+  public boolean addAndGetIsDuplicate(T value) {
+    BloomFilter<T>[] current = current();
+    for (int i = 1; i < current.length; i++) {
+      if (current[i].mightContain(value)) {
+        return true;
+      }
+    }
+    // put only reports a change if the value was not already in the newest filter
+    return !current[0].put(value);
+  }
+
+  /** @return the filters of the current generation, newest first */
+  private BloomFilter<T>[] current() {
+    while (true) {
+      Filters<T> filters = this.filters.get();
+      long now = ticker.read();
+      long elapsed = (now - filters.startedAt) / generationNanos;
+      if (elapsed <= 0) {
+        return filters.filters;
+      }
+      int rotations = (int) Math.min(elapsed, filters.filters.length);
+      @SuppressWarnings("unchecked") // generic array creation
+      BloomFilter<T>[] rotated = new BloomFilter[filters.filters.length];
+      for (int i = 0; i < rotations; i++) {
+        rotated[i] = newFilter();
+      }
+      System.arraycopy(filters.filters, 0, rotated, rotations, rotated.length - rotations);
+      long startedAt =
+          rotations == filters.filters.length
+              ? now
+              : filters.startedAt + rotations * generationNanos;
+      this.filters.compareAndSet(filters, new Filters<>(rotated, startedAt));
+    }
+  }
+
+  /** An immutable snapshot so rotation can be swapped in atomically */
+  private record Filters<T>(BloomFilter<T>[] filters, long startedAt) {}
+}
@@ -0,0 +1,86 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.message;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Funnel;
+import com.meta.cp4m.Identifier;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Remembers every message id received within a window of time in a fixed amount of memory, see
+ * {@link TimeWindowDeduplicator}
+ */
+public class TimeWindowDeduplicatorConfig implements DeduplicatorConfig {
+  private static final long DEFAULT_WINDOW_HOURS = 24;
+  private static final long DEFAULT_EXPECTED_MESSAGES = 1_000_000;
+  private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.0001;
+
+  private static final Funnel<Identifier> IDENTIFIER_FUNNEL =
+      (id, sink) -> sink.putString(id.toString(), StandardCharsets.UTF_8);
+
+  private final Duration window;
+  private final long expectedMessages;
+  private final double falsePositiveRate;
+
+  @JsonCreator
+  private TimeWindowDeduplicatorConfig(
+      @JsonProperty("window_hours") @Nullable Long windowHours,
+      @JsonProperty("expected_messages") @Nullable Long expectedMessages,
+      @JsonProperty("false_positive_rate") @Nullable Double falsePositiveRate) {
+    Preconditions.checkArgument(
+        windowHours == null || windowHours > 0, "window_hours must be greater than zero");
+    Preconditions.checkArgument(
+        expectedMessages == null || expectedMessages > 0,
+        "expected_messages must be greater than zero");
+    Preconditions.checkArgument(
+        falsePositiveRate == null || (falsePositiveRate > 0 && falsePositiveRate < 1),
+        "false_positive_rate must be between zero and one");
+    this.window = Duration.ofHours(windowHours == null ? DEFAULT_WINDOW_HOURS : windowHours);
+    this.expectedMessages =
+        expectedMessages == null ? DEFAULT_EXPECTED_MESSAGES : expectedMessages;
+    this.falsePositiveRate =
+        falsePositiveRate == null ? DEFAULT_FALSE_POSITIVE_RATE : falsePositiveRate;
+  }
+
+  public static TimeWindowDeduplicatorConfig of(
+      Duration window, long expectedMessages, double falsePositiveRate) {
+    Preconditions.checkArgument(
+        window.toHours() > 0 && window.equals(Duration.ofHours(window.toHours())),
+        "window must be a whole number of hours");
+    return new TimeWindowDeduplicatorConfig(window.toHours(), expectedMessages, falsePositiveRate);
+  }
+
+  public Duration window() {
+    return window;
+  }
+
+  public long windowHours() {
+    return window.toHours();
+  }
+
+  /** the number of messages expected within one window */
+  public long expectedMessages() {
+    return expectedMessages;
+  }
+
+  public double falsePositiveRate() {
+    return falsePositiveRate;
+  }
+
+  @Override
+  public TimeWindowDeduplicator<Identifier> toFilter() {
+    return new TimeWindowDeduplicator<>(
+        IDENTIFIER_FUNNEL, window, expectedMessages, falsePositiveRate);
+  }
+}
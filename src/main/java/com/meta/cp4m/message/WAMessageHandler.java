@@ -12,25 +12,31 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.meta.cp4m.Identifier;
+import com.meta.cp4m.http.AsyncHttpClient;
 import com.meta.cp4m.message.webhook.whatsapp.TextWebhookMessage;
 import com.meta.cp4m.message.webhook.whatsapp.Utils;
 import com.meta.cp4m.message.webhook.whatsapp.WebhookMessage;
 import com.meta.cp4m.message.webhook.whatsapp.WebhookPayload;
+import com.meta.cp4m.message.webhook.whatsapp.WebhookReader;
+import com.meta.cp4m.message.webhook.whatsapp.WebhookReader.ReceivedMessage;
 import io.javalin.http.Context;
 import io.javalin.http.HandlerType;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Function;
-import org.apache.hc.client5.http.fluent.Request;
-import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
 import org.apache.hc.core5.net.URIBuilder;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.common.returnsreceiver.qual.This;
 import org.jetbrains.annotations.TestOnly;
 import org.slf4j.Logger;
@@ -50,11 +56,11 @@ public class WAMessageHandler implements MessageHandler<WAMessage> {
 
   private static final TextChunker CHUNKER = TextChunker.standard(MAX_CHARS_PER_MESSAGE);
 
-  private final ExecutorService readExecutor = Executors.newCachedThreadPool();
-  private final Deduplicator<Identifier> messageDeduplicator = new Deduplicator<>(10_000);
-  private final String appSecret;
+  private final DuplicateFilter<Identifier> messageDeduplicator;
+  private final HmacVerifier signatureVerifier;
   private final String verifyToken;
   private final String accessToken;
+  private final AsyncHttpClient httpClient;
 
   private Function<Identifier, URI> baseURLFactory =
       phoneNumberId -> {
@@ -74,14 +80,22 @@ public class WAMessageHandler implements MessageHandler<WAMessage> {
 
   public WAMessageHandler(String verifyToken, String appSecret, String accessToken) {
     this.verifyToken = verifyToken;
-    this.appSecret = appSecret;
+    this.signatureVerifier = new HmacVerifier(appSecret);
     this.accessToken = accessToken;
+    this.httpClient = AsyncHttpClient.shared();
+    this.messageDeduplicator = DeduplicatorConfig.defaults().toFilter();
   }
 
   public WAMessageHandler(WAMessengerConfig config) {
+    this(config, AsyncHttpClient.shared());
+  }
+
+  public WAMessageHandler(WAMessengerConfig config, AsyncHttpClient httpClient) {
     this.verifyToken = config.verifyToken();
     this.accessToken = config.accessToken();
-    this.appSecret = config.appSecret();
+    this.signatureVerifier = new HmacVerifier(config.appSecret());
+    this.httpClient = Objects.requireNonNull(httpClient);
+    this.messageDeduplicator = config.deduplication().toFilter(httpClient);
   }
 
   @Override
@@ -109,8 +123,52 @@ public class WAMessageHandler implements MessageHandler<WAMessage> {
   }
 
   List<WAMessage> postHandler(Context ctx) {
-    MetaHandlerUtils.postHeaderValidator(ctx, appSecret);
-    String bodyString = ctx.body();
+    MetaHandlerUtils.postHeaderValidator(ctx, signatureVerifier);
+    return parse(ctx.bodyAsBytes());
+  }
+
+  /** Only the signature is checked on the request thread, the body is parsed when called. */
+  @Override
+  public Callable<List<WAMessage>> accept(Context ctx) {
+    MetaHandlerUtils.postHeaderValidator(ctx, signatureVerifier);
+    byte[] body = ctx.bodyAsBytes();
+    return () -> parse(body);
+  }
+
+  private List<WAMessage> parse(byte[] body) {
+    @Nullable List<ReceivedMessage> received = WebhookReader.read(body);
+    if (received == null) {
+      // the full model reports what is wrong with the payload
+      received = readPayload(new String(body, StandardCharsets.UTF_8));
+    }
+
+    List<WAMessage> waMessages = new ArrayList<>();
+    for (ReceivedMessage message : received) {
+      if (messageDeduplicator.addAndGetIsDuplicate(message.id())) {
+        continue; // message is a duplicate
+      }
+      @Nullable String text = message.text();
+      if (message.type() != WebhookMessage.WebhookMessageType.TEXT || text == null) {
+        LOGGER.warn(
+            "received message of type '"
+                + message.type()
+                + "', only able to handle text messages at this time");
+        continue;
+      }
+      waMessages.add(
+          new WAMessage(
+              message.timestamp(),
+              message.id(),
+              message.from(),
+              message.phoneNumberId(),
+              text,
+              Message.Role.USER));
+      markRead(message.phoneNumberId(), message.id().toString());
+    }
+    return waMessages;
+  }
+
+  private static List<ReceivedMessage> readPayload(String bodyString) {
     WebhookPayload payload;
     try {
       payload = MAPPER.readValue(bodyString, WebhookPayload.class);
@@ -123,38 +181,23 @@ public class WAMessageHandler implements MessageHandler<WAMessage> {
           .log();
       throw new RuntimeException(e);
     }
-
-    List<WAMessage> waMessages = new ArrayList<>();
-    payload.entry().stream()
+    return payload.entry().stream()
         .flatMap(e -> e.changes().stream())
-        .forEach(
-            change -> {
-              Identifier phoneNumberId = change.value().metadata().phoneNumberId();
-              for (WebhookMessage message : change.value().messages()) {
-                if (messageDeduplicator.addAndGetIsDuplicate(message.id())) {
-                  continue; // message is a duplicate
-                }
-                if (message.type() != WebhookMessage.WebhookMessageType.TEXT) {
-                  LOGGER.warn(
-                      "received message of type '"
-                          + message.type()
-                          + "', only able to handle text messages at this time");
-                  continue;
-                }
-                TextWebhookMessage textMessage = (TextWebhookMessage) message;
-                waMessages.add(
-                    new WAMessage(
-                        message.timestamp(),
-                        message.id(),
-                        message.from(),
-                        phoneNumberId,
-                        textMessage.text().body(),
-                        Message.Role.USER));
-                readExecutor.execute(() -> markRead(phoneNumberId, textMessage.id().toString()));
-              }
-            });
-
-    return waMessages;
+        .flatMap(
+            change ->
+                change.value().messages().stream()
+                    .map(
+                        message ->
+                            new ReceivedMessage(
+                                change.value().metadata().phoneNumberId(),
+                                message.id(),
+                                message.from(),
+                                message.timestamp(),
+                                message.type(),
+                                message instanceof TextWebhookMessage text
+                                    ? text.text().body()
+                                    : null)))
+        .toList();
   }
 
   @TestOnly
@@ -165,13 +208,16 @@ public class WAMessageHandler implements MessageHandler<WAMessage> {
   }
 
   @Override
-  public void respond(WAMessage message) throws IOException {
+  public CompletableFuture<Void> respond(WAMessage message) {
+    // chunks are sent one after another so that they arrive in order
+    CompletableFuture<Void> sent = CompletableFuture.completedFuture(null);
     for (String text : CHUNKER.chunks(message.message()).toList()) {
-      send(message.recipientId(), message.senderId(), text);
+      sent = sent.thenCompose(v -> send(message.recipientId(), message.senderId(), text));
     }
+    return sent;
   }
 
-  private void send(Identifier recipient, Identifier sender, String text) throws IOException {
+  private CompletableFuture<Void> send(Identifier recipient, Identifier sender, String text) {
     ObjectNode body =
         MAPPER
             .createObjectNode()
@@ -181,11 +227,42 @@ public class WAMessageHandler implements MessageHandler<WAMessage> {
             .put("to", recipient.toString());
     body.putObject("text").put("body", text);
     String bodyString;
-    bodyString = MAPPER.writeValueAsString(body);
-    Request.post(baseURLFactory.apply(sender))
-        .setHeader("Authorization", "Bearer " + accessToken)
-        .bodyString(bodyString, ContentType.APPLICATION_JSON)
-        .execute();
+    try {
+      bodyString = MAPPER.writeValueAsString(body);
+    } catch (JsonProcessingException e) {
+      // This should be impossible
+      throw new RuntimeException(e);
+    }
+    return post(baseURLFactory.apply(sender), bodyString)
+        .thenAccept(
+            response -> {
+              if (response.getCode() != 200) {
+                String errorMessage =
+                    "received a "
+                        + response.getCode()
+                        + " error code when attempting to reply. "
+                        + response.getReasonPhrase();
+                LOGGER.atError().addKeyValue("body", bodyString).setMessage(errorMessage).log();
+                throw new CompletionException(new IOException(errorMessage));
+              }
+            });
+  }
+
+  private CompletableFuture<SimpleHttpResponse> post(URI url, String bodyString) {
+    return httpClient.execute(
+        AsyncHttpClient.postJson(url, bodyString)
+            .setHeader("Authorization", "Bearer " + accessToken)
+            .build());
+  }
+
+  @Override
+  public TextChunker textChunker() {
+    return CHUNKER;
+  }
+
+  @Override
+  public boolean handles(Message message) {
+    return message instanceof WAMessage;
   }
 
   @Override
@@ -208,15 +285,13 @@ public class WAMessageHandler implements MessageHandler<WAMessage> {
       throw new RuntimeException(e);
     }
 
-    try {
-      Request.post(baseURLFactory.apply(phoneNumberId))
-          .setHeader("Authorization", "Bearer " + accessToken)
-          .bodyString(bodyString, ContentType.APPLICATION_JSON)
-          .execute();
-    } catch (IOException e) {
-      // nothing we can do here, marking later messages as read will mark all previous messages read
-      // so this is not a fatal issue
-      LOGGER.error("unable to mark message as read", e);
-    }
+    post(baseURLFactory.apply(phoneNumberId), bodyString)
+        .exceptionally(
+            e -> {
+              // nothing we can do here, marking later messages as read will mark all previous
+              // messages read so this is not a fatal issue
+              LOGGER.error("unable to mark message as read", e);
+              return null;
+            });
   }
 }
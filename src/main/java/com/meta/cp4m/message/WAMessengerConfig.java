@@ -10,7 +10,9 @@ package com.meta.cp4m.message;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Preconditions;
+import com.meta.cp4m.http.AsyncHttpClient;
 import java.util.UUID;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 public class WAMessengerConfig implements HandlerConfig {
 
@@ -18,12 +20,14 @@ public class WAMessengerConfig implements HandlerConfig {
   private final String verifyToken;
   private final String appSecret;
   private final String accessToken;
+  private final DeduplicatorConfig deduplication;
 
   private WAMessengerConfig(
       @JsonProperty("name") String name,
       @JsonProperty("verify_token") String verifyToken,
       @JsonProperty("app_secret") String appSecret,
-      @JsonProperty("access_token") String accessToken) {
+      @JsonProperty("access_token") String accessToken,
+      @JsonProperty("deduplication") @Nullable DeduplicatorConfig deduplication) {
 
     Preconditions.checkArgument(name != null && !name.isBlank(), "name cannot be blank");
     Preconditions.checkArgument(
@@ -37,11 +41,13 @@ public class WAMessengerConfig implements HandlerConfig {
     this.verifyToken = verifyToken;
     this.appSecret = appSecret;
     this.accessToken = accessToken;
+    this.deduplication = deduplication == null ? DeduplicatorConfig.defaults() : deduplication;
   }
 
   public static WAMessengerConfig of(String verifyToken, String appSecret, String accessToken) {
     // human readability of the name only matters when it's coming from a config
-    return new WAMessengerConfig(UUID.randomUUID().toString(), verifyToken, appSecret, accessToken);
+    return new WAMessengerConfig(
+        UUID.randomUUID().toString(), verifyToken, appSecret, accessToken, null);
   }
 
   @Override
@@ -59,10 +65,19 @@ public class WAMessengerConfig implements HandlerConfig {
 
   @Override
   public WAMessageHandler toMessageHandler() {
-    return new WAMessageHandler(this);
+    return toMessageHandler(AsyncHttpClient.shared());
+  }
+
+  @Override
+  public WAMessageHandler toMessageHandler(AsyncHttpClient httpClient) {
+    return new WAMessageHandler(this, httpClient);
   }
 
   public String accessToken() {
     return accessToken;
   }
+
+  public DeduplicatorConfig deduplication() {
+    return deduplication;
+  }
 }
@@ -0,0 +1,252 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.message.webhook.whatsapp;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.meta.cp4m.Identifier;
+import com.meta.cp4m.message.webhook.whatsapp.WebhookMessage.WebhookMessageType;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Reads only the parts of a {@link WebhookPayload} needed to reply to a message, straight from the
+ * request body.
+ *
+ * <p>Contacts, statuses, errors and any other object are skipped over by the parser without being
+ * built, so a payload that only reports statuses costs little more than a scan of its bytes. When
+ * the payload is not shaped the way this reader expects it gives up and returns null, so that the
+ * caller can fall back to {@link WebhookPayload} to find out what is wrong.
+ */
+public final class WebhookReader {
+
+  private static final Map<String, WebhookMessageType> TYPES =
+      Arrays.stream(WebhookMessageType.values())
+          .collect(Collectors.toUnmodifiableMap(WebhookMessageType::toString, Function.identity()));
+
+  private WebhookReader() {}
+
+  /**
+   * @param body the request body
+   * @return every message in the payload in order, or null if the payload could not be read
+   */
+  public static @Nullable List<ReceivedMessage> read(byte[] body) {
+    try (JsonParser parser = Utils.JSON_MAPPER.createParser(body)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return null;
+      }
+      List<ReceivedMessage> messages = Collections.emptyList();
+      boolean whatsapp = false;
+      boolean hasEntry = false;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        parser.nextToken();
+        switch (field) {
+          case "object" -> whatsapp = "whatsapp_business_account".equals(scalar(parser));
+          case "entry" -> {
+            if (parser.currentToken() != JsonToken.START_ARRAY) {
+              return null;
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+              hasEntry = true;
+              messages = readEntry(parser, messages);
+              if (messages == null) {
+                return null;
+              }
+            }
+          }
+          default -> parser.skipChildren();
+        }
+      }
+      return whatsapp && hasEntry ? messages : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static @Nullable List<ReceivedMessage> readEntry(
+      JsonParser parser, List<ReceivedMessage> messages) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      parser.nextToken();
+      if (!field.equals("changes")) {
+        parser.skipChildren();
+        continue;
+      }
+      if (parser.currentToken() != JsonToken.START_ARRAY) {
+        return null;
+      }
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String changeField = parser.currentName();
+          parser.nextToken();
+          if (!changeField.equals("value")) {
+            parser.skipChildren();
+            continue;
+          }
+          messages = readValue(parser, messages);
+          if (messages == null) {
+            return null;
+          }
+        }
+      }
+    }
+    return messages;
+  }
+
+  private static @Nullable List<ReceivedMessage> readValue(
+      JsonParser parser, List<ReceivedMessage> messages) throws IOException {
+    if (parser.currentToken() != JsonToken.START_OBJECT) {
+      return null;
+    }
+    @Nullable String phoneNumberId = null;
+    boolean whatsapp = false;
+    // metadata may come after the messages, so they are only completed at the end of the value
+    List<MessageFields> fields = Collections.emptyList();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      parser.nextToken();
+      switch (field) {
+        case "messaging_product" -> whatsapp = "whatsapp".equals(scalar(parser));
+        case "metadata" -> {
+          if (parser.currentToken() != JsonToken.START_OBJECT) {
+            return null;
+          }
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String metadataField = parser.currentName();
+            parser.nextToken();
+            if (metadataField.equals("phone_number_id")) {
+              phoneNumberId = scalar(parser);
+            } else {
+              parser.skipChildren();
+            }
+          }
+        }
+        case "messages" -> {
+          if (parser.currentToken() != JsonToken.START_ARRAY) {
+            return null;
+          }
+          fields = new ArrayList<>();
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            @Nullable MessageFields message = readMessage(parser);
+            if (message == null) {
+              return null;
+            }
+            fields.add(message);
+          }
+        }
+        default -> parser.skipChildren();
+      }
+    }
+    if (!whatsapp || phoneNumberId == null) {
+      return null;
+    }
+    if (fields.isEmpty()) {
+      return messages;
+    }
+    if (messages.isEmpty()) {
+      messages = new ArrayList<>(fields.size());
+    }
+    Identifier phoneNumber = Identifier.from(phoneNumberId);
+    for (MessageFields message : fields) {
+      messages.add(
+          new ReceivedMessage(
+              phoneNumber,
+              Identifier.from(message.id),
+              Identifier.from(message.from),
+              Instant.ofEpochSecond(message.timestamp),
+              message.type,
+              message.text));
+    }
+    return messages;
+  }
+
+  private static @Nullable MessageFields readMessage(JsonParser parser) throws IOException {
+    @Nullable String id = null;
+    @Nullable String from = null;
+    @Nullable String timestamp = null;
+    @Nullable String type = null;
+    @Nullable String text = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      parser.nextToken();
+      switch (field) {
+        case "id" -> id = scalar(parser);
+        case "from" -> from = scalar(parser);
+        case "timestamp" -> timestamp = scalar(parser);
+        case "type" -> type = scalar(parser);
+        case "text" -> {
+          if (parser.currentToken() != JsonToken.START_OBJECT) {
+            return null;
+          }
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String textField = parser.currentName();
+            parser.nextToken();
+            if (textField.equals("body")) {
+              text = scalar(parser);
+            } else {
+              parser.skipChildren();
+            }
+          }
+        }
+        default -> parser.skipChildren();
+      }
+    }
+    @Nullable WebhookMessageType messageType = type == null ? null : TYPES.get(type);
+    if (id == null || from == null || timestamp == null || messageType == null) {
+      return null;
+    }
+    if (messageType == WebhookMessageType.TEXT && text == null) {
+      return null;
+    }
+    try {
+      return new MessageFields(id, from, Long.parseLong(timestamp), messageType, text);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /** @return the current value as a string, null if it is null, an object or an array */
+  private static @Nullable String scalar(JsonParser parser) throws IOException {
+    if (parser.currentToken().isStructStart()) {
+      parser.skipChildren();
+      return null;
+    }
+    return parser.getValueAsString();
+  }
+
+  private record MessageFields(
+      String id, String from, long timestamp, WebhookMessageType type, @Nullable String text) {}
+
+  /**
+   * A message received by the business
+   *
+   * @param phoneNumberId the business phone number the message was sent to
+   * @param id the id of the message
+   * @param from the customer's WhatsApp ID
+   * @param timestamp when the WhatsApp server received the message
+   * @param type the type of the message
+   * @param text the body of a text message, null for any other type
+   */
+  public record ReceivedMessage(
+      Identifier phoneNumberId,
+      Identifier id,
+      Identifier from,
+      Instant timestamp,
+      WebhookMessageType type,
+      @Nullable String text) {}
+}
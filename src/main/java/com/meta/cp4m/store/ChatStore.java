@@ -10,6 +10,7 @@ package com.meta.cp4m.store;
 
 import com.meta.cp4m.message.Message;
 import com.meta.cp4m.message.ThreadState;
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -21,11 +22,18 @@ import java.util.List;
  *
  * @param <T> the type of message being passed
  */
-public interface ChatStore<T extends Message> {
+public interface ChatStore<T extends Message> extends AutoCloseable {
 
   ThreadState<T> add(T message);
 
   long size();
 
   List<ThreadState<T>> list();
+
+  /**
+   * Release whatever the store holds on to, a store that writes to disk finishes the writes it has
+   * been given first. Nothing can be added once the store is closed. Does nothing by default.
+   */
+  @Override
+  default void close() throws IOException {}
 }
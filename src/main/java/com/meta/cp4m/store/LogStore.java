@@ -0,0 +1,148 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.store;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.meta.cp4m.Identifier;
+import com.meta.cp4m.message.Message;
+import com.meta.cp4m.message.ThreadState;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A {@link ChatStore} that keeps every message in an append-only log on local disk so that
+ * conversations survive a restart.
+ *
+ * <p>Only the offsets of each thread's messages are kept in memory. A {@link ThreadState} is
+ * rebuilt from the log the first time it is needed and a bounded number of them are cached.
+ * Messages are decoded straight out of memory mapped segment files, so threads that are not cached
+ * are kept in memory by the OS page cache rather than on the heap.
+ */
+public class LogStore<T extends Message> implements ChatStore<T> {
+
+  private final SegmentedLog log;
+  private final Map<Identifier, Offsets> index = new ConcurrentHashMap<>();
+  private final Cache<Identifier, ThreadState<T>> threads;
+  private final int maxMessagesPerThread;
+  private volatile boolean closed = false;
+
+  LogStore(LogStoreConfig config) throws IOException {
+    this.maxMessagesPerThread = config.maxMessagesPerThread();
+    this.threads = CacheBuilder.newBuilder().maximumSize(config.maxCachedThreads()).build();
+    this.log =
+        new SegmentedLog(
+            config.path(),
+            config.segmentSizeMb() << 20,
+            (offset, payload) ->
+                index
+                    .computeIfAbsent(MessageCodec.threadId(payload), k -> new Offsets())
+                    .add(offset));
+  }
+
+  @Override
+  public ThreadState<T> add(T message) {
+    long offset;
+    try {
+      offset = log.append(MessageCodec.encode(message)).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException io) {
+        throw new UncheckedIOException(io);
+      }
+      throw e;
+    }
+    // the cache's compute is the lock that keeps the index and the cached thread in step
+    return threads
+        .asMap()
+        .compute(
+            message.threadId(),
+            (k, v) -> {
+              index.computeIfAbsent(k, unused -> new Offsets()).add(offset);
+              return v == null ? load(k) : v.with(message).retainLast(maxMessagesPerThread);
+            });
+  }
+
+  private ThreadState<T> load(Identifier threadId) {
+    long[] offsets = Objects.requireNonNull(index.get(threadId)).toArray();
+    @Nullable ThreadState<T> thread = null;
+    // messages beyond the window are never read back from the log
+    for (int i = Math.max(0, offsets.length - maxMessagesPerThread); i < offsets.length; i++) {
+      T message = read(offsets[i]);
+      thread = thread == null ? ThreadState.of(message) : thread.with(message);
+    }
+    return Objects.requireNonNull(thread);
+  }
+
+  private T read(long offset) {
+    try {
+      @SuppressWarnings("unchecked") // a store only ever holds messages of one type
+      T message = (T) MessageCodec.decode(log.read(offset));
+      return message;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public long size() {
+    return index.size();
+  }
+
+  /**
+   * @return a view of every thread in the store when this was called. A thread that is not cached
+   *     is only read from the log when it is reached and it is not added to the cache, so walking
+   *     the whole store holds one thread on the heap at a time and does not push out the threads
+   *     that are in use. Each access to an element reads it again.
+   */
+  @Override
+  public List<ThreadState<T>> list() {
+    return Lists.transform(List.copyOf(index.keySet()), this::peek);
+  }
+
+  private ThreadState<T> peek(Identifier threadId) {
+    @Nullable ThreadState<T> cached = threads.getIfPresent(threadId);
+    return cached == null ? load(threadId) : cached;
+  }
+
+  /** Waits for the appends already handed to the log to be written */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    log.close();
+  }
+
+  boolean isClosed() {
+    return closed;
+  }
+
+  /** the offsets of the messages in one thread, in the order they were written */
+  private static final class Offsets {
+    private long[] offsets = new long[4];
+    private int size = 0;
+
+    synchronized void add(long offset) {
+      if (size == offsets.length) {
+        offsets = Arrays.copyOf(offsets, size * 2);
+      }
+      offsets[size++] = offset;
+    }
+
+    synchronized long[] toArray() {
+      return Arrays.copyOf(offsets, size);
+    }
+  }
+}
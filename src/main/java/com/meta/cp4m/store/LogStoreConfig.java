@@ -0,0 +1,109 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.store;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.meta.cp4m.message.Message;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.UUID;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+public class LogStoreConfig implements StoreConfig {
+  private static final long DEFAULT_SEGMENT_SIZE_MB = 64;
+  private static final long MAX_SEGMENT_SIZE_MB = 1024;
+  private static final long DEFAULT_MAX_CACHED_THREADS = 10_000;
+
+  private final String name;
+  private final Path path;
+  private final long segmentSizeMb;
+  private final long maxCachedThreads;
+  private final int maxMessagesPerThread;
+  private @Nullable LogStore<?> store;
+
+  @JsonCreator
+  private LogStoreConfig(
+      @JsonProperty("name") String name,
+      @JsonProperty("path") String path,
+      @JsonProperty("segment_size_mb") @Nullable Long segmentSizeMb,
+      @JsonProperty("max_cached_threads") @Nullable Long maxCachedThreads,
+      @JsonProperty("max_messages_per_thread") @Nullable Integer maxMessagesPerThread) {
+    Preconditions.checkArgument(name != null && !name.isBlank(), "name cannot be blank");
+    Preconditions.checkArgument(path != null && !path.isBlank(), "path cannot be blank");
+    Preconditions.checkArgument(
+        segmentSizeMb == null || segmentSizeMb > 0, "segment_size_mb must be greater than zero");
+    Preconditions.checkArgument(
+        segmentSizeMb == null || segmentSizeMb <= MAX_SEGMENT_SIZE_MB,
+        "segment_size_mb must be at most " + MAX_SEGMENT_SIZE_MB);
+    Preconditions.checkArgument(
+        maxCachedThreads == null || maxCachedThreads >= 0,
+        "max_cached_threads must be greater than or equal to zero");
+    Preconditions.checkArgument(
+        maxMessagesPerThread == null || maxMessagesPerThread > 0,
+        "max_messages_per_thread must be greater than zero");
+    this.name = Objects.requireNonNull(name);
+    this.path = Path.of(path);
+    this.segmentSizeMb = segmentSizeMb == null ? DEFAULT_SEGMENT_SIZE_MB : segmentSizeMb;
+    this.maxCachedThreads =
+        maxCachedThreads == null ? DEFAULT_MAX_CACHED_THREADS : maxCachedThreads;
+    this.maxMessagesPerThread =
+        maxMessagesPerThread == null ? Integer.MAX_VALUE : maxMessagesPerThread;
+  }
+
+  public static LogStoreConfig of(Path path) {
+    // readability of the name doesn't matter unless it comes from the config
+    return new LogStoreConfig(UUID.randomUUID().toString(), path.toString(), null, null, null);
+  }
+
+  @Override
+  public String name() {
+    return name;
+  }
+
+  public Path path() {
+    return path;
+  }
+
+  public long segmentSizeMb() {
+    return segmentSizeMb;
+  }
+
+  public long maxCachedThreads() {
+    return maxCachedThreads;
+  }
+
+  /**
+   * Only the newest messages of a thread are loaded into memory, older ones stay in the log on disk
+   */
+  public int maxMessagesPerThread() {
+    return maxMessagesPerThread;
+  }
+
+  /**
+   * Every service that names this store shares one instance, two instances cannot write to the
+   * same log. Once that instance has been closed the next call opens the log again.
+   */
+  @Override
+  public synchronized <T extends Message> LogStore<T> toStore() {
+    if (store == null || store.isClosed()) {
+      try {
+        store = new LogStore<>(this);
+      } catch (IOException e) {
+        throw new UncheckedIOException("unable to open log store at " + path, e);
+      }
+    }
+    @SuppressWarnings("unchecked") // a log store holds whichever message type it is given
+    LogStore<T> typed = (LogStore<T>) store;
+    return typed;
+  }
+}
@@ -18,8 +18,10 @@ import java.util.List;
 
 public class MemoryStore<T extends Message> implements ChatStore<T> {
   private final Cache<Identifier, ThreadState<T>> store;
+  private final int maxMessagesPerThread;
 
   MemoryStore(MemoryStoreConfig config) {
+    this.maxMessagesPerThread = config.maxMessagesPerThread();
     this.store =
         CacheBuilder.newBuilder()
             .expireAfterWrite(Duration.ofHours(config.storageDurationHours()))
@@ -40,7 +42,7 @@ public class MemoryStore<T extends Message> implements ChatStore<T> {
               if (v == null) {
                 return ThreadState.of(message);
               }
-              return v.with(message);
+              return v.with(message).retainLast(maxMessagesPerThread);
             });
   }
 
@@ -14,33 +14,41 @@ import com.google.common.base.Preconditions;
 import com.meta.cp4m.message.Message;
 import java.util.Objects;
 import java.util.UUID;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 public class MemoryStoreConfig implements StoreConfig {
 
   private final String name;
   private final long storageDurationHours;
   private final long storageCapacityMb;
+  private final int maxMessagesPerThread;
 
   @JsonCreator
   private MemoryStoreConfig(
       @JsonProperty("name") String name,
       @JsonProperty("storage_duration_hours") long storageDurationHours,
-      @JsonProperty("storage_capacity_mbs") long storageCapacityMbs) {
+      @JsonProperty("storage_capacity_mbs") long storageCapacityMbs,
+      @JsonProperty("max_messages_per_thread") @Nullable Integer maxMessagesPerThread) {
     Preconditions.checkArgument(name != null && !name.isBlank(), "name cannot be blank");
     Preconditions.checkArgument(
         storageDurationHours > 0, "storage_duration_hours must be greater than zero");
     Preconditions.checkArgument(
         storageCapacityMbs > 0, "storage_duration_hours must be greater than zero");
+    Preconditions.checkArgument(
+        maxMessagesPerThread == null || maxMessagesPerThread > 0,
+        "max_messages_per_thread must be greater than zero");
 
     this.name = Objects.requireNonNull(name);
     this.storageDurationHours = storageDurationHours;
     this.storageCapacityMb = storageCapacityMbs;
+    this.maxMessagesPerThread =
+        maxMessagesPerThread == null ? Integer.MAX_VALUE : maxMessagesPerThread;
   }
 
   public static MemoryStoreConfig of(long storageDurationHours, long storageCapacityMb) {
     // readability of the name doesn't matter unless it comes from the config
     return new MemoryStoreConfig(
-        UUID.randomUUID().toString(), storageDurationHours, storageCapacityMb);
+        UUID.randomUUID().toString(), storageDurationHours, storageCapacityMb, null);
   }
 
   @Override
@@ -56,6 +64,11 @@ public class MemoryStoreConfig implements StoreConfig {
     return storageCapacityMb;
   }
 
+  /** older messages are dropped from a thread once it has this many */
+  public int maxMessagesPerThread() {
+    return maxMessagesPerThread;
+  }
+
   @Override
   public <T extends Message> MemoryStore<T> toStore() {
     return new MemoryStore<>(this);
@@ -0,0 +1,111 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.store;
+
+import com.meta.cp4m.Identifier;
+import com.meta.cp4m.message.Message;
+import com.meta.cp4m.message.Message.Role;
+import com.meta.cp4m.message.MessageFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Turns messages into bytes and back. Each message is tagged with the name of its class so that any
+ * message type with a registered {@link MessageFactory} can be read back.
+ */
+final class MessageCodec {
+
+  private static final Map<String, MessageFactory<? extends Message>> FACTORIES =
+      MessageFactory.FACTORY_MAP.keySet().stream()
+          .collect(
+              Collectors.toUnmodifiableMap(Class::getName, c -> MessageFactory.instance(c)));
+
+  private static final Role[] ROLES = Role.values();
+
+  private MessageCodec() {}
+
+  static byte[] encode(Message message) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + message.message().length() * 3);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      writeString(out, message.getClass().getName());
+      out.writeLong(message.timestamp().getEpochSecond());
+      out.writeInt(message.timestamp().getNano());
+      out.writeByte(message.role().ordinal());
+      writeString(out, message.instanceId().toString());
+      writeString(out, message.senderId().toString());
+      writeString(out, message.recipientId().toString());
+      writeString(out, message.message());
+    } catch (IOException e) {
+      // writing to a byte array cannot fail
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @param record a buffer holding exactly one encoded message, its position is not changed
+   * @return the message
+   */
+  static Message decode(ByteBuffer record) {
+    ByteBuffer in = record.duplicate();
+    String type = readString(in);
+    MessageFactory<? extends Message> factory =
+        Objects.requireNonNull(
+            FACTORIES.get(type), () -> type + " does not have a registered message factory");
+    Instant timestamp = Instant.ofEpochSecond(in.getLong(), in.getInt());
+    Role role = ROLES[in.get()];
+    Identifier instanceId = Identifier.from(readString(in));
+    Identifier senderId = Identifier.from(readString(in));
+    Identifier recipientId = Identifier.from(readString(in));
+    String message = readString(in);
+    return factory.newMessage(timestamp, message, senderId, recipientId, instanceId, role);
+  }
+
+  /**
+   * Read only the thread id of an encoded message, the rest of the message is skipped.
+   *
+   * @param record a buffer holding exactly one encoded message, its position is not changed
+   * @return the thread id of the message
+   */
+  static Identifier threadId(ByteBuffer record) {
+    ByteBuffer in = record.duplicate();
+    skipString(in); // type
+    in.position(in.position() + Long.BYTES + Integer.BYTES + Byte.BYTES);
+    skipString(in); // instance id
+    Identifier senderId = Identifier.from(readString(in));
+    Identifier recipientId = Identifier.from(readString(in));
+    return Message.threadId(senderId, recipientId);
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer in) {
+    int length = in.getInt();
+    byte[] bytes = new byte[length];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void skipString(ByteBuffer in) {
+    int length = in.getInt();
+    in.position(in.position() + length);
+  }
+}
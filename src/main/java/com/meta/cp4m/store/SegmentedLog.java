@@ -0,0 +1,345 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.store;
+
+import com.google.common.base.Preconditions;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * An append-only log of byte records split over segment files in one directory.
+ *
+ * <p>Every record is written as its length, a CRC32C of the payload and the payload itself. A
+ * record is addressed by its offset, the number of bytes written to the log before it. Segment
+ * files are named after the offset of their first record.
+ *
+ * <p>Appends are handed to a single writer thread which takes everything that is waiting, writes it
+ * with one gathering write and then forces it to disk once for the whole batch. The more callers
+ * append concurrently the more records share one fsync. A record is only readable, and its future
+ * only completes, once it is durable.
+ *
+ * <p>Records are read through memory mapped views of the segment files so reading a record does
+ * not copy it onto the heap and the OS page cache decides which parts of the log stay in memory.
+ * Segments are mapped in fixed windows and each window is mapped once, when it can no longer grow:
+ * as soon as it is full, or for the last window of a segment, once the next segment is started. A
+ * record in the window still being written, or one that crosses into the next window, is read
+ * into a heap buffer instead.
+ */
+final class SegmentedLog implements AutoCloseable {
+
+  @FunctionalInterface
+  interface RecordVisitor {
+    void accept(long offset, ByteBuffer payload) throws IOException;
+  }
+
+  private static final int HEADER_BYTES = Integer.BYTES * 2;
+  private static final long WINDOW_BYTES = 4 << 20;
+  private static final int MAX_BATCH = 4096;
+  private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d{20})\\.log");
+  private static final Pending CLOSE = new Pending(new byte[0], new CompletableFuture<>());
+
+  private final Path directory;
+  private final long segmentBytes;
+  private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+  private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+  private final Thread writer;
+  private boolean closed = false; // guarded by pending
+
+  /**
+   * Open the log in the given directory, creating it if needed. Every intact record is passed to
+   * the visitor in order. A record that was only partially written when the process stopped is cut
+   * off.
+   *
+   * @param directory where the segment files are kept
+   * @param segmentBytes the size after which a new segment file is started
+   * @param visitor called with the offset and payload of every record already in the log
+   */
+  SegmentedLog(Path directory, long segmentBytes, RecordVisitor visitor) throws IOException {
+    Preconditions.checkArgument(segmentBytes > 0, "segmentBytes must be greater than zero");
+    // a segment has to fit in a single mapped buffer
+    Preconditions.checkArgument(
+        segmentBytes <= Integer.MAX_VALUE, "segmentBytes must be at most %s", Integer.MAX_VALUE);
+    this.directory = Files.createDirectories(directory);
+    this.segmentBytes = segmentBytes;
+
+    List<Long> bases;
+    try (Stream<Path> files = Files.list(directory)) {
+      bases =
+          files
+              .map(p -> SEGMENT_NAME.matcher(p.getFileName().toString()))
+              .filter(Matcher::matches)
+              .map(m -> Long.parseLong(m.group(1)))
+              .sorted()
+              .toList();
+    }
+    for (int i = 0; i < bases.size(); i++) {
+      boolean last = i == bases.size() - 1;
+      Segment segment = Segment.open(segmentPath(bases.get(i)), bases.get(i));
+      segments.put(segment.base, segment);
+      long intact = recover(segment, visitor);
+      if (intact < segment.size) {
+        if (!last) {
+          throw new IOException(segmentPath(segment.base) + " is corrupt at position " + intact);
+        }
+        segment.channel.truncate(intact);
+        segment.size = intact;
+      }
+      segment.channel.position(segment.size);
+      segment.sealed = !last;
+    }
+    if (segments.isEmpty()) {
+      Segment segment = Segment.open(segmentPath(0), 0);
+      segments.put(segment.base, segment);
+    }
+
+    this.writer = new Thread(this::writeLoop, "cp4m-log-writer-" + directory.getFileName());
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  private Path segmentPath(long base) {
+    return directory.resolve("segment-%020d.log".formatted(base));
+  }
+
+  /** @return the length of the intact prefix of the segment */
+  private static long recover(Segment segment, RecordVisitor visitor) throws IOException {
+    // only used while opening the log, reads go through the segment's windows
+    ByteBuffer mapped = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+    CRC32C crc = new CRC32C();
+    int position = 0;
+    while (position + HEADER_BYTES <= segment.size) {
+      int length = mapped.getInt(position);
+      int checksum = mapped.getInt(position + Integer.BYTES);
+      if (length < 0 || position + HEADER_BYTES + (long) length > segment.size) {
+        break;
+      }
+      ByteBuffer payload = mapped.slice(position + HEADER_BYTES, length);
+      crc.reset();
+      crc.update(payload.duplicate());
+      if ((int) crc.getValue() != checksum) {
+        break;
+      }
+      visitor.accept(segment.base + position, payload);
+      position += HEADER_BYTES + length;
+    }
+    return position;
+  }
+
+  /**
+   * @param payload the record to append
+   * @return a future that completes with the offset of the record once it is on disk
+   */
+  CompletableFuture<Long> append(byte[] payload) {
+    CompletableFuture<Long> offset = new CompletableFuture<>();
+    synchronized (pending) {
+      if (closed) {
+        offset.completeExceptionally(new IOException("log at " + directory + " is closed"));
+      } else {
+        pending.add(new Pending(payload, offset));
+      }
+    }
+    return offset;
+  }
+
+  /**
+   * @param offset the offset of a record returned by {@link #append} or passed to the visitor
+   * @return a read only view of the payload of the record, it is only valid until the log is closed
+   */
+  ByteBuffer read(long offset) throws IOException {
+    Map.@Nullable Entry<Long, Segment> entry = segments.floorEntry(offset);
+    Preconditions.checkArgument(entry != null, "offset %s is not in the log", offset);
+    Segment segment = entry.getValue();
+    long position = offset - segment.base;
+    Preconditions.checkArgument(
+        position + HEADER_BYTES <= segment.size, "offset %s is not in the log", offset);
+    int length = segment.view(position, Integer.BYTES).getInt(0);
+    return segment.view(position + HEADER_BYTES, length).asReadOnlyBuffer();
+  }
+
+  private void writeLoop() {
+    List<Pending> batch = new ArrayList<>();
+    boolean running = true;
+    while (running) {
+      try {
+        batch.add(pending.take());
+      } catch (InterruptedException e) {
+        break;
+      }
+      pending.drainTo(batch, MAX_BATCH - 1);
+      if (batch.get(batch.size() - 1) == CLOSE) {
+        batch.remove(batch.size() - 1);
+        running = false;
+      }
+      write(batch);
+      batch.clear();
+    }
+  }
+
+  private void write(List<Pending> batch) {
+    Segment active = segments.lastEntry().getValue();
+    List<ByteBuffer> buffers = new ArrayList<>(batch.size() * 2);
+    long[] offsets = new long[batch.size()];
+    int durable = 0;
+    CRC32C crc = new CRC32C();
+    try {
+      long position = active.size;
+      for (int i = 0; i < batch.size(); i++) {
+        byte[] payload = batch.get(i).payload;
+        long recordBytes = HEADER_BYTES + payload.length;
+        if (position > 0 && position + recordBytes > segmentBytes) {
+          flush(active, buffers, position);
+          durable = i;
+          active.sealed = true;
+          active = Segment.open(segmentPath(active.base + position), active.base + position);
+          segments.put(active.base, active);
+          position = 0;
+        }
+        crc.reset();
+        crc.update(payload);
+        ByteBuffer header =
+            ByteBuffer.allocate(HEADER_BYTES).putInt(payload.length).putInt((int) crc.getValue());
+        buffers.add(header.flip());
+        buffers.add(ByteBuffer.wrap(payload));
+        offsets[i] = active.base + position;
+        position += recordBytes;
+      }
+      flush(active, buffers, position);
+      durable = batch.size();
+    } catch (IOException e) {
+      try {
+        // leave the log as it was before the failed write
+        active.channel.truncate(active.size);
+      } catch (IOException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      for (int i = durable; i < batch.size(); i++) {
+        batch.get(i).offset.completeExceptionally(e);
+      }
+    }
+    for (int i = 0; i < durable; i++) {
+      batch.get(i).offset.complete(offsets[i]);
+    }
+  }
+
+  private static void flush(Segment segment, List<ByteBuffer> buffers, long size)
+      throws IOException {
+    ByteBuffer[] array = buffers.toArray(ByteBuffer[]::new);
+    long remaining = size - segment.size;
+    while (remaining > 0) {
+      remaining -= segment.channel.write(array);
+    }
+    segment.channel.force(false);
+    segment.size = size;
+    buffers.clear();
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (pending) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      pending.add(CLOSE);
+    }
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (Segment segment : segments.values()) {
+      segment.channel.close();
+    }
+  }
+
+  private record Pending(byte[] payload, CompletableFuture<Long> offset) {}
+
+  private static final class Segment {
+    private final long base;
+    private final FileChannel channel;
+    private volatile long size;
+    /** set once no more records will be written to this segment */
+    private volatile boolean sealed = false;
+
+    private final Map<Long, MappedByteBuffer> windows = new ConcurrentHashMap<>();
+
+    private Segment(long base, FileChannel channel) throws IOException {
+      this.base = base;
+      this.channel = channel;
+      this.size = channel.size();
+      channel.position(size);
+    }
+
+    static Segment open(Path path, long base) throws IOException {
+      return new Segment(
+          base,
+          FileChannel.open(
+              path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+    }
+
+    /**
+     * @param position the position of the first byte in the segment
+     * @param length the number of bytes, they must all have been written
+     * @return a buffer holding exactly those bytes
+     */
+    ByteBuffer view(long position, int length) throws IOException {
+      long window = position / WINDOW_BYTES;
+      long windowStart = window * WINDOW_BYTES;
+      long windowEnd = windowStart + WINDOW_BYTES;
+      if (position + length <= windowEnd && (windowEnd <= size || sealed)) {
+        return window(window).slice((int) (position - windowStart), length);
+      }
+      ByteBuffer copy = ByteBuffer.allocate(length);
+      while (copy.hasRemaining()) {
+        if (channel.read(copy, position + copy.position()) < 0) {
+          throw new EOFException("segment ends before position " + (position + length));
+        }
+      }
+      return copy.flip();
+    }
+
+    /** Only call once the window can no longer grow */
+    private MappedByteBuffer window(long window) throws IOException {
+      @Nullable MappedByteBuffer mapped = windows.get(window);
+      if (mapped == null) {
+        synchronized (this) {
+          mapped = windows.get(window);
+          if (mapped == null) {
+            long start = window * WINDOW_BYTES;
+            mapped =
+                channel.map(
+                    FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_BYTES, size - start));
+            windows.put(window, mapped);
+          }
+        }
+      }
+      return mapped;
+    }
+  }
+}
@@ -9,7 +9,9 @@
 package com.meta.cp4m;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import java.util.List;
 import org.junit.jupiter.api.Test;
 
 class IdentifierTest {
@@ -33,4 +35,58 @@ class IdentifierTest {
     assertThat(Identifier.from("1")).isGreaterThan(Identifier.from("0"));
     assertThat(Identifier.from("1")).isLessThan(Identifier.from("2"));
   }
+
+  @Test
+  void numbersRoundTrip() {
+    for (long n : new long[] {0, 7, -7, 10, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE}) {
+      assertThat(Identifier.from(n).toString()).isEqualTo(Long.toString(n));
+      assertThat(Identifier.from(Long.toString(n))).isEqualTo(Identifier.from(n));
+      assertThat(Identifier.from(Long.toString(n)).hashCode())
+          .isEqualTo(Identifier.from(n).hashCode());
+    }
+    // strings that look like numbers but are not how a long is printed stay strings
+    for (String s : new String[] {"", "-", "-0", "007", "+1", "9223372036854775808", "1a"}) {
+      assertThat(Identifier.from(s).toString()).isEqualTo(s);
+    }
+    assertThat(Identifier.from("007")).isNotEqualTo(Identifier.from(7));
+  }
+
+  @Test
+  void orderedLikeStrings() {
+    List<String> ids =
+        List.of(
+            "", "-", "-1", "-10", "-9", "0", "1", "10", "100", "19", "2", "9", "a", "m_abc", "é",
+            Long.toString(Long.MAX_VALUE), Long.toString(Long.MIN_VALUE));
+    for (String a : ids) {
+      for (String b : ids) {
+        assertThat(Integer.signum(Identifier.from(a).compareTo(Identifier.from(b))))
+            .as("%s compared to %s", a, b)
+            .isEqualTo(Integer.signum(a.compareTo(b)));
+      }
+    }
+  }
+
+  @Test
+  void join() {
+    assertThat(Identifier.join(Identifier.from(-12), '|', Identifier.from("abc")))
+        .isEqualTo(Identifier.from("-12|abc"));
+    assertThat(Identifier.join(Identifier.from(""), '_', Identifier.from(5)).toString())
+        .isEqualTo("_5");
+    assertThatThrownBy(() -> Identifier.join(Identifier.from(1), '2', Identifier.from(3)))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void isJoin() {
+    Identifier first = Identifier.from(-12);
+    Identifier second = Identifier.from("abc");
+    Identifier joined = Identifier.join(first, '|', second);
+    assertThat(joined.isJoin(first, '|', second)).isTrue();
+    assertThat(Identifier.from("-12|abc").isJoin(first, '|', second)).isTrue();
+    assertThat(joined.isJoin(first, '_', second)).isFalse();
+    assertThat(joined.isJoin(second, '|', first)).isFalse();
+    assertThat(joined.isJoin(Identifier.from(-1), '|', Identifier.from("2|abc"))).isFalse();
+    assertThat(joined.isJoin(first, '|', Identifier.from("ab"))).isFalse();
+    assertThat(Identifier.from(12).isJoin(Identifier.from(1), '|', Identifier.from(2))).isFalse();
+  }
 }
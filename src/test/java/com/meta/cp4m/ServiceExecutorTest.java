@@ -0,0 +1,124 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.meta.cp4m.ServiceExecutor.ThreadType;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+class ServiceExecutorTest {
+
+  @ParameterizedTest
+  @EnumSource(ThreadType.class)
+  void concurrencyIsBounded(ThreadType threadType) throws InterruptedException {
+    int maxConcurrency = 4;
+    int tasks = 200;
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    CountDownLatch done = new CountDownLatch(tasks);
+    try (ServiceExecutor executor = ServiceExecutor.of(threadType, maxConcurrency)) {
+      for (int i = 0; i < tasks; i++) {
+        executor.execute(
+            () -> {
+              int now = running.incrementAndGet();
+              maxRunning.accumulateAndGet(now, Math::max);
+              try {
+                Thread.sleep(1);
+              } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+              } finally {
+                running.decrementAndGet();
+                done.countDown();
+              }
+            });
+      }
+      assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+    assertThat(maxRunning.get()).isLessThanOrEqualTo(maxConcurrency).isGreaterThan(0);
+  }
+
+  @ParameterizedTest
+  @EnumSource(ThreadType.class)
+  void unbounded(ThreadType threadType) throws InterruptedException {
+    int tasks = 50;
+    CountDownLatch allStarted = new CountDownLatch(tasks);
+    CountDownLatch release = new CountDownLatch(1);
+    try (ServiceExecutor executor = ServiceExecutor.of(threadType, null)) {
+      for (int i = 0; i < tasks; i++) {
+        executor.execute(
+            () -> {
+              allStarted.countDown();
+              try {
+                release.await();
+              } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+              }
+            });
+      }
+      // every task must be able to run at the same time
+      assertThat(allStarted.await(10, TimeUnit.SECONDS)).isTrue();
+      release.countDown();
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(ThreadType.class)
+  void asyncTasksHoldTheirPlaceUntilComplete(ThreadType threadType) throws InterruptedException {
+    int maxConcurrency = 2;
+    BlockingQueue<CompletableFuture<Void>> started = new LinkedBlockingDeque<>();
+    try (ServiceExecutor executor = ServiceExecutor.of(threadType, maxConcurrency)) {
+      for (int i = 0; i < 3; i++) {
+        executor.executeAsync(
+            () -> {
+              CompletableFuture<Void> future = new CompletableFuture<>();
+              started.add(future);
+              return future;
+            });
+      }
+      @Nullable CompletableFuture<Void> first = started.poll(1, TimeUnit.SECONDS);
+      assertThat(first).isNotNull();
+      assertThat(started.poll(1, TimeUnit.SECONDS)).isNotNull();
+      // the first two have returned but not completed so the third has to wait
+      assertThat(started.poll(100, TimeUnit.MILLISECONDS)).isNull();
+      first.complete(null);
+      assertThat(started.poll(1, TimeUnit.SECONDS)).isNotNull();
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(ThreadType.class)
+  void continuationsRunOnPlatformThreads(ThreadType threadType) {
+    try (ServiceExecutor executor = ServiceExecutor.of(threadType, null)) {
+      CompletableFuture<Boolean> virtual =
+          CompletableFuture.supplyAsync(
+              () -> Thread.currentThread().isVirtual(), executor.continuations());
+      assertThat(virtual).succeedsWithin(Duration.ofSeconds(1)).isEqualTo(false);
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(ThreadType.class)
+  void invalidConcurrency(ThreadType threadType) {
+    assertThatThrownBy(() -> ServiceExecutor.of(threadType, 0))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> ServiceExecutor.of(threadType, -1))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
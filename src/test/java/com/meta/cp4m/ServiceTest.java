@@ -0,0 +1,389 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meta.cp4m.llm.LLMPlugin;
+import com.meta.cp4m.message.Message.Role;
+import com.meta.cp4m.message.FBMessage;
+import com.meta.cp4m.message.MessageFactory;
+import com.meta.cp4m.message.ServiceTestHarness;
+import com.meta.cp4m.message.ServiceTestHarness.ReceivedRequest;
+import com.meta.cp4m.message.ThreadState;
+import com.meta.cp4m.message.WAMessage;
+import com.meta.cp4m.store.ChatStore;
+import com.meta.cp4m.store.MemoryStoreConfig;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ServiceTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final BlockingQueue<ThreadState<WAMessage>> llmCalls = new LinkedBlockingDeque<>();
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final LLMPlugin<WAMessage> blockingPlugin =
+      thread -> {
+        llmCalls.add(thread);
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        return thread.newMessageFromBot(Instant.now(), "response");
+      };
+  private final ServiceTestHarness<WAMessage> harness =
+      ServiceTestHarness.newWAServiceTestHarness().withLLMPlugin(blockingPlugin).start();
+
+  static String waTextMessage(String from, String text) {
+    return """
+{
+  "object": "whatsapp_business_account",
+  "entry": [{
+    "id": "0",
+    "changes": [{
+      "field": "messages",
+      "value": {
+        "messaging_product": "whatsapp",
+        "metadata": {"display_phone_number": "16505551111", "phone_number_id": "123456123"},
+        "messages": [{
+          "from": "%s",
+          "id": "%s",
+          "timestamp": "%d",
+          "type": "text",
+          "text": {"body": "%s"}
+        }]
+      }
+    }]
+  }]
+}
+"""
+        .formatted(from, UUID.randomUUID(), Instant.now().getEpochSecond(), text);
+  }
+
+  @AfterEach
+  void tearDown() {
+    release.countDown();
+    harness.stop();
+  }
+
+  private ThreadState<WAMessage> nextLLMCall() throws InterruptedException {
+    @Nullable ThreadState<WAMessage> thread = llmCalls.poll(1, TimeUnit.SECONDS);
+    assertThat(thread).isNotNull();
+    return thread;
+  }
+
+  @Test
+  void messagesInOneThreadAreCoalesced() throws IOException, InterruptedException {
+    harness.post(waTextMessage("1", "hi")).execute();
+    assertThat(nextLLMCall().messages()).hasSize(1);
+
+    // the LLM is busy with the first message, these two must wait and be answered together
+    harness.post(waTextMessage("1", "I need")).execute();
+    harness.post(waTextMessage("1", "help with my order")).execute();
+    assertThat(llmCalls.poll(100, TimeUnit.MILLISECONDS)).isNull();
+
+    release.countDown();
+    ThreadState<WAMessage> second = nextLLMCall();
+    assertThat(second.messages())
+        .hasSize(4)
+        .extracting(WAMessage::message)
+        .contains("hi", "I need", "help with my order", "response");
+    assertThat(second.messages()).filteredOn(m -> m.role() == Role.ASSISTANT).hasSize(1);
+    assertThat(llmCalls.poll(250, TimeUnit.MILLISECONDS)).isNull();
+  }
+
+  @Test
+  void threadsRunInParallel() throws IOException, InterruptedException {
+    harness.post(waTextMessage("1", "hi")).execute();
+    harness.post(waTextMessage("2", "hi")).execute();
+    // both conversations reach the LLM even though neither call has returned
+    assertThat(nextLLMCall().userId()).isNotEqualTo(nextLLMCall().userId());
+  }
+
+  @Test
+  void debounceWaitsForQuiet() throws IOException, InterruptedException {
+    release.countDown();
+    harness.service().debounce(Duration.ofMillis(300));
+    harness.post(waTextMessage("1", "hi")).execute();
+    harness.post(waTextMessage("1", "I need")).execute();
+    harness.post(waTextMessage("1", "help with my order")).execute();
+    assertThat(llmCalls.poll(150, TimeUnit.MILLISECONDS)).isNull();
+
+    assertThat(nextLLMCall().messages())
+        .extracting(WAMessage::message)
+        .containsExactlyInAnyOrder("hi", "I need", "help with my order");
+    assertThat(llmCalls.poll(500, TimeUnit.MILLISECONDS)).isNull();
+  }
+
+  @Test
+  void streamedParagraphsAreSentAsTheyComplete() throws IOException, InterruptedException {
+    CompletableFuture<Void> finish = new CompletableFuture<>();
+    LLMPlugin<WAMessage> streamingPlugin =
+        new LLMPlugin<>() {
+          @Override
+          public WAMessage handle(ThreadState<WAMessage> threadState) {
+            throw new UnsupportedOperationException();
+          }
+
+          @Override
+          public CompletableFuture<WAMessage> handleStreaming(
+              ThreadState<WAMessage> threadState, Consumer<String> onText) {
+            onText.accept("the first");
+            onText.accept(" paragraph\n\nthe sec");
+            return finish.thenApply(
+                v -> {
+                  onText.accept("ond paragraph");
+                  return threadState.newMessageFromBot(
+                      Instant.now(), "the first paragraph\n\nthe second paragraph");
+                });
+          }
+        };
+    ServiceTestHarness<WAMessage> streamingHarness = harness.withLLMPlugin(streamingPlugin).start();
+    try {
+      streamingHarness.post(waTextMessage("1", "hi")).execute();
+      assertThat(nextResponse(streamingHarness)).isEqualTo("the first paragraph");
+      finish.complete(null);
+      assertThat(nextResponse(streamingHarness)).isEqualTo("the second paragraph");
+      // the whole response is stored as a single message
+      assertThat(streamingHarness.chatStore().list())
+          .singleElement()
+          .satisfies(
+              t ->
+                  assertThat(t.tail().message())
+                      .isEqualTo("the first paragraph\n\nthe second paragraph"));
+    } finally {
+      streamingHarness.stop();
+    }
+  }
+
+  @Test
+  void unansweredConversationsAreReplayedOnStart() throws IOException, InterruptedException {
+    release.countDown();
+    MessageFactory<WAMessage> factory = MessageFactory.instance(WAMessage.class);
+    Identifier botId = Identifier.from(123456123);
+    ChatStore<WAMessage> store = MemoryStoreConfig.of(1, 1).toStore();
+    WAMessage unanswered =
+        factory.newMessage(
+            Instant.now(),
+            "are you there?",
+            Identifier.from(1),
+            botId,
+            Identifier.random(),
+            Role.USER);
+    store.add(unanswered);
+    ThreadState<WAMessage> answered =
+        store.add(
+            factory.newMessage(
+                Instant.now(), "hi", Identifier.from(2), botId, Identifier.random(), Role.USER));
+    store.add(answered.newMessageFromBot(Instant.now(), "hello"));
+    // too old to be answered
+    store.add(
+        factory.newMessage(
+            Instant.now().minus(Duration.ofHours(25)),
+            "anyone?",
+            Identifier.from(5),
+            botId,
+            Identifier.random(),
+            Role.USER));
+    // a store can be shared with services on other platforms, their conversations are left alone
+    @SuppressWarnings("unchecked")
+    ChatStore<FBMessage> shared = (ChatStore<FBMessage>) (ChatStore<?>) store;
+    shared.add(
+        MessageFactory.instance(FBMessage.class)
+            .newMessage(
+                Instant.now(),
+                "messenger",
+                Identifier.from(3),
+                Identifier.from(4),
+                Identifier.random(),
+                Role.USER));
+
+    ServiceTestHarness<WAMessage> replayHarness = harness.withChatStore(store);
+    replayHarness.service().replay(2, 100);
+    replayHarness.start();
+    try {
+      assertThat(nextLLMCall().tail()).isEqualTo(unanswered);
+      assertThat(nextResponse(replayHarness)).isEqualTo("response");
+      assertThat(llmCalls.poll(250, TimeUnit.MILLISECONDS)).isNull();
+    } finally {
+      replayHarness.stop();
+    }
+  }
+
+  @Test
+  void responsesAreNotStoredOnTheThreadThatCompletesTheLLMCall()
+      throws IOException, InterruptedException {
+    BlockingQueue<String> storeThreads = new LinkedBlockingDeque<>();
+    ChatStore<WAMessage> memory = MemoryStoreConfig.of(1, 1).toStore();
+    ChatStore<WAMessage> recordingStore =
+        new ChatStore<>() {
+          @Override
+          public ThreadState<WAMessage> add(WAMessage message) {
+            if (message.role() == Role.ASSISTANT) {
+              storeThreads.add(Thread.currentThread().getName());
+            }
+            return memory.add(message);
+          }
+
+          @Override
+          public long size() {
+            return memory.size();
+          }
+
+          @Override
+          public List<ThreadState<WAMessage>> list() {
+            return memory.list();
+          }
+        };
+    // completes the response the way the HTTP client does, from one of its I/O threads
+    LLMPlugin<WAMessage> ioThreadPlugin =
+        new LLMPlugin<>() {
+          @Override
+          public WAMessage handle(ThreadState<WAMessage> threadState) {
+            throw new UnsupportedOperationException();
+          }
+
+          @Override
+          public CompletableFuture<WAMessage> handleAsync(ThreadState<WAMessage> threadState) {
+            CompletableFuture<WAMessage> response = new CompletableFuture<>();
+            Thread.ofPlatform()
+                .name("cp4m-http-test")
+                .start(
+                    () -> {
+                      try {
+                        Thread.sleep(100);
+                      } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                      }
+                      response.complete(threadState.newMessageFromBot(Instant.now(), "response"));
+                    });
+            return response;
+          }
+        };
+    ServiceTestHarness<WAMessage> ioHarness =
+        harness.withChatStore(recordingStore).withLLMPlugin(ioThreadPlugin).start();
+    try {
+      ioHarness.post(waTextMessage("1", "hi")).execute();
+      @Nullable String storeThread = storeThreads.poll(1, TimeUnit.SECONDS);
+      assertThat(storeThread).isNotNull().doesNotStartWith("cp4m-http");
+    } finally {
+      ioHarness.stop();
+    }
+  }
+
+  @Test
+  void ingestAnswersBeforeProcessing() throws IOException, InterruptedException {
+    harness.service().ingest(16, 2);
+    assertThat(harness.post(waTextMessage("1", "hi")).execute().returnResponse().getCode())
+        .isEqualTo(200);
+    assertThat(nextLLMCall().tail().message()).isEqualTo("hi");
+
+    // the signature is still checked before the request is answered
+    assertThat(
+            harness.post(waTextMessage("1", "hi"), false).execute().returnResponse().getCode())
+        .isEqualTo(403);
+  }
+
+  @Test
+  void closingTheServiceStopsTheIngestWorkers() throws IOException, InterruptedException {
+    harness.service().ingest(16, 2);
+    assertThat(harness.post(waTextMessage("1", "hi")).execute().returnResponse().getCode())
+        .isEqualTo(200);
+    assertThat(nextLLMCall().tail().message()).isEqualTo("hi");
+    String prefix = "cp4m-ingest-" + harness.service().path() + "-";
+    assertThat(Thread.getAllStackTraces().keySet())
+        .filteredOn(t -> t.getName().startsWith(prefix))
+        .hasSize(2);
+
+    harness.stop();
+    assertThat(Thread.getAllStackTraces().keySet())
+        .filteredOn(t -> t.getName().startsWith(prefix))
+        .isEmpty();
+  }
+
+  @Test
+  void ingestRejectsWhenFull() throws IOException, InterruptedException {
+    CountDownLatch adding = new CountDownLatch(1);
+    CountDownLatch added = new CountDownLatch(1);
+    ChatStore<WAMessage> memory = MemoryStoreConfig.of(1, 1).toStore();
+    ChatStore<WAMessage> slowStore =
+        new ChatStore<>() {
+          @Override
+          public ThreadState<WAMessage> add(WAMessage message) {
+            adding.countDown();
+            try {
+              added.await();
+            } catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+            return memory.add(message);
+          }
+
+          @Override
+          public long size() {
+            return memory.size();
+          }
+
+          @Override
+          public List<ThreadState<WAMessage>> list() {
+            return memory.list();
+          }
+        };
+    ServiceTestHarness<WAMessage> ingestHarness = harness.withChatStore(slowStore);
+    ingestHarness.service().ingest(1, 1);
+    ingestHarness.start();
+    try {
+      // the only worker is held up by the store, the second request fills the queue
+      assertThat(ingestHarness.post(waTextMessage("1", "a")).execute().returnResponse().getCode())
+          .isEqualTo(200);
+      assertThat(adding.await(1, TimeUnit.SECONDS)).isTrue();
+      assertThat(ingestHarness.post(waTextMessage("2", "b")).execute().returnResponse().getCode())
+          .isEqualTo(200);
+      assertThat(ingestHarness.post(waTextMessage("3", "c")).execute().returnResponse().getCode())
+          .isEqualTo(503);
+
+      added.countDown();
+      release.countDown();
+      assertThat(List.of(nextLLMCall(), nextLLMCall()))
+          .extracting(t -> t.tail().message())
+          .containsExactlyInAnyOrder("a", "b");
+    } finally {
+      ingestHarness.stop();
+    }
+  }
+
+  private static String nextResponse(ServiceTestHarness<WAMessage> harness)
+      throws InterruptedException, IOException {
+    while (true) {
+      @Nullable ReceivedRequest request = harness.pollWebserver(1000);
+      assertThat(request).isNotNull();
+      JsonNode body = MAPPER.readTree(request.body());
+      // read receipts go to the same endpoint
+      if (body.has("text")) {
+        return body.get("text").get("body").textValue();
+      }
+    }
+  }
+}
@@ -12,19 +12,35 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.dataformat.toml.TomlMapper;
+import com.meta.cp4m.Identifier;
+import com.meta.cp4m.Service;
 import com.meta.cp4m.ServiceConfiguration;
+import com.meta.cp4m.ServiceExecutor.ThreadType;
+import com.meta.cp4m.ServicesRunner;
+import com.meta.cp4m.http.HttpClientConfig;
+import com.meta.cp4m.http.HttpClientConfig.HttpVersion;
 import com.meta.cp4m.llm.HuggingFaceConfig;
 import com.meta.cp4m.llm.OpenAIConfig;
 import com.meta.cp4m.llm.OpenAIModel;
+import com.meta.cp4m.message.FBMessage;
 import com.meta.cp4m.message.FBMessengerConfig;
+import com.meta.cp4m.message.Message;
+import com.meta.cp4m.message.MessageFactory;
 import com.meta.cp4m.message.WAMessengerConfig;
+import com.meta.cp4m.store.ChatStore;
 import com.meta.cp4m.store.MemoryStoreConfig;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -254,6 +270,106 @@ handler = "messenger_test"
         .isInstanceOf(IllegalArgumentException.class);
   }
 
+  @Test
+  void serviceExecution() throws JsonProcessingException {
+    TomlMapper mapper = ConfigurationUtils.tomlMapper();
+    ObjectNode node = (ObjectNode) mapper.readTree(TOML);
+    RootConfiguration config = mapper.convertValue(node, RootConfiguration.class);
+    ServiceConfiguration service = config.services().stream().findAny().orElseThrow();
+    assertThat(service.threadType()).isEqualTo(ThreadType.VIRTUAL);
+    assertThat(service.maxConcurrency()).isNull();
+    assertThat(service.debounce()).isEqualTo(Duration.ZERO);
+    assertThat(service.replayMaxConcurrency()).isEqualTo(8);
+    assertThat(service.replayPerSecond()).isEqualTo(5);
+    assertThat(service.replayMaxAge()).isEqualTo(Duration.ofHours(24));
+    assertThat(service.ingestQueueCapacity()).isEqualTo(0);
+    assertThat(service.ingestWorkers()).isEqualTo(2);
+
+    ObjectNode serviceNode = (ObjectNode) node.get("services").get(0);
+    serviceNode
+        .put("thread_type", "platform")
+        .put("max_concurrency", 16)
+        .put("debounce_ms", 800)
+        .put("replay_max_concurrency", 0)
+        .put("replay_per_second", 0.5)
+        .put("replay_max_age_hours", 72)
+        .put("ingest_queue_capacity", 1000)
+        .put("ingest_workers", 4);
+    config = mapper.convertValue(node, RootConfiguration.class);
+    service = config.services().stream().findAny().orElseThrow();
+    assertThat(service.threadType()).isEqualTo(ThreadType.PLATFORM);
+    assertThat(service.maxConcurrency()).isEqualTo(16);
+    assertThat(service.debounce()).isEqualTo(Duration.ofMillis(800));
+    assertThat(service.replayMaxConcurrency()).isEqualTo(0);
+    assertThat(service.replayPerSecond()).isEqualTo(0.5);
+    assertThat(service.replayMaxAge()).isEqualTo(Duration.ofHours(72));
+    assertThat(service.ingestQueueCapacity()).isEqualTo(1000);
+    assertThat(service.ingestWorkers()).isEqualTo(4);
+
+    serviceNode.put("debounce_ms", -1);
+    assertThatThrownBy(() -> mapper.convertValue(node, RootConfiguration.class))
+        .isInstanceOf(IllegalArgumentException.class);
+    serviceNode.remove("debounce_ms");
+
+    serviceNode.put("replay_max_concurrency", -1);
+    assertThatThrownBy(() -> mapper.convertValue(node, RootConfiguration.class))
+        .isInstanceOf(IllegalArgumentException.class);
+    serviceNode.remove("replay_max_concurrency");
+
+    serviceNode.put("replay_per_second", 0);
+    assertThatThrownBy(() -> mapper.convertValue(node, RootConfiguration.class))
+        .isInstanceOf(IllegalArgumentException.class);
+    serviceNode.remove("replay_per_second");
+
+    serviceNode.put("replay_max_age_hours", 0);
+    assertThatThrownBy(() -> mapper.convertValue(node, RootConfiguration.class))
+        .isInstanceOf(IllegalArgumentException.class);
+    serviceNode.remove("replay_max_age_hours");
+
+    serviceNode.put("ingest_queue_capacity", -1);
+    assertThatThrownBy(() -> mapper.convertValue(node, RootConfiguration.class))
+        .isInstanceOf(IllegalArgumentException.class);
+    serviceNode.remove("ingest_queue_capacity");
+
+    serviceNode.put("ingest_workers", 0);
+    assertThatThrownBy(() -> mapper.convertValue(node, RootConfiguration.class))
+        .isInstanceOf(IllegalArgumentException.class);
+    serviceNode.remove("ingest_workers");
+
+    serviceNode.put("max_concurrency", 0);
+    assertThatThrownBy(() -> mapper.convertValue(node, RootConfiguration.class))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void httpClient() throws JsonProcessingException {
+    TomlMapper mapper = ConfigurationUtils.tomlMapper();
+    ObjectNode node = (ObjectNode) mapper.readTree(TOML);
+    assertThat(mapper.convertValue(node, RootConfiguration.class).httpClient()).isNull();
+
+    ObjectNode httpClientNode =
+        node.putObject("http_client")
+            .put("max_connections", 500)
+            .put("max_connections_per_host", 100)
+            .put("response_timeout_ms", 5000)
+            .put("http_version", "http1");
+    @Nullable HttpClientConfig httpClient =
+        mapper.convertValue(node, RootConfiguration.class).httpClient();
+    assertThat(httpClient).isNotNull();
+    assertThat(httpClient.maxConnections()).isEqualTo(500);
+    assertThat(httpClient.maxConnectionsPerHost()).isEqualTo(100);
+    assertThat(httpClient.responseTimeout()).isEqualTo(Duration.ofSeconds(5));
+    assertThat(httpClient.connectTimeout()).isEqualTo(HttpClientConfig.defaults().connectTimeout());
+    assertThat(httpClient.httpVersion()).isEqualTo(HttpVersion.HTTP1);
+
+    httpClientNode.put("max_connections_per_host", 501);
+    assertThatThrownBy(() -> mapper.convertValue(node, RootConfiguration.class))
+        .isInstanceOf(IllegalArgumentException.class);
+    httpClientNode.put("max_connections_per_host", 0);
+    assertThatThrownBy(() -> mapper.convertValue(node, RootConfiguration.class))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
   @ParameterizedTest
   @ValueSource(strings = {"store", "plugin", "handler"})
   void serviceValuesMustMatch(String param) throws JsonProcessingException {
@@ -265,4 +381,60 @@ handler = "messenger_test"
         .withFailMessage("the services value for " + param + " must be present in a " + param)
         .isInstanceOf(IllegalArgumentException.class);
   }
+
+  @Test
+  void replayNeedsServicesSharingALogStoreToBeOnDifferentPlatforms(@TempDir Path dir)
+      throws JsonProcessingException {
+    TomlMapper mapper = ConfigurationUtils.tomlMapper();
+    ObjectNode node = (ObjectNode) mapper.readTree(TOML);
+    ((ObjectNode) node.get("stores").get(0))
+        .removeAll()
+        .put("name", "memory_test")
+        .put("type", "log")
+        .put("path", dir.toString());
+    ObjectNode first = (ObjectNode) node.get("services").get(0);
+    ObjectNode second = first.deepCopy().put("webhook_path", "/messenger2");
+    ((ArrayNode) node.get("services")).add(second);
+    assertThatThrownBy(() -> mapper.convertValue(node, RootConfiguration.class))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("/messenger2");
+
+    second.put("replay_max_concurrency", 0);
+    assertThat(mapper.convertValue(node, RootConfiguration.class).services()).hasSize(2);
+  }
+
+  @Test
+  void closingTheRunnerClosesSharedStoresOnce(@TempDir Path dir) throws JsonProcessingException {
+    TomlMapper mapper = ConfigurationUtils.tomlMapper();
+    ObjectNode node = (ObjectNode) mapper.readTree(TOML);
+    ((ObjectNode) node.get("stores").get(0))
+        .removeAll()
+        .put("name", "memory_test")
+        .put("type", "log")
+        .put("path", dir.toString());
+    ObjectNode first = (ObjectNode) node.get("services").get(0);
+    ObjectNode second = first.deepCopy().put("webhook_path", "/messenger2");
+    second.put("replay_max_concurrency", 0);
+    ((ArrayNode) node.get("services")).add(second);
+    ServicesRunner runner = mapper.convertValue(node, RootConfiguration.class).toServicesRunner();
+    List<ChatStore<?>> stores =
+        runner.services().stream().<ChatStore<?>>map(Service::store).toList();
+    assertThat(stores).hasSize(2);
+    assertThat(stores.get(0)).isSameAs(stores.get(1));
+    @SuppressWarnings("unchecked")
+    ChatStore<FBMessage> store = (ChatStore<FBMessage>) stores.get(0);
+    FBMessage message =
+        MessageFactory.instance(FBMessage.class)
+            .newMessage(
+                Instant.now(),
+                "hi",
+                Identifier.from(1),
+                Identifier.from(2),
+                Identifier.random(),
+                Message.Role.USER);
+    store.add(message);
+
+    runner.close();
+    assertThatThrownBy(() -> store.add(message)).isInstanceOf(UncheckedIOException.class);
+  }
 }
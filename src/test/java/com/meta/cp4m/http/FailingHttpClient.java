@@ -0,0 +1,26 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.http;
+
+import java.util.concurrent.CompletableFuture;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+
+/** A client that throws instead of sending, as a client does once it has been shut down */
+public class FailingHttpClient extends AsyncHttpClient {
+
+  public FailingHttpClient() {
+    super(HttpClientConfig.defaults());
+  }
+
+  @Override
+  public CompletableFuture<SimpleHttpResponse> execute(SimpleHttpRequest request) {
+    throw new IllegalStateException("request cannot be executed");
+  }
+}
@@ -111,6 +111,53 @@ public class HuggingFaceLlamaPluginTest {
     @Nullable OutboundRequest or = HuggingFaceLlamaRequests.poll(500, TimeUnit.MILLISECONDS);
     assertThat(or).isNotNull();
     assertThat(or.headerMap().get("Authorization")).isNotNull().isEqualTo("Bearer " + apiKey);
+    // the response holds only the generated text, not the prompt as well
+    assertThat(
+            MAPPER.readTree(or.body()).get("parameters").get("return_full_text").booleanValue())
+        .isFalse();
+  }
+
+  @Test
+  void streaming() throws IOException, InterruptedException {
+    String streamPath = "/stream";
+    StringBuilder events = new StringBuilder();
+    List<String> tokens = List.of(" this", " is", " a", " test", " message", "</s>");
+    for (int i = 0; i < tokens.size(); i++) {
+      ObjectNode event = MAPPER.createObjectNode();
+      boolean last = i == tokens.size() - 1;
+      event
+          .putObject("token")
+          .put("id", i)
+          .put("text", tokens.get(i))
+          .put("logprob", -0.1)
+          .put("special", last);
+      event.put("generated_text", last ? TEST_MESSAGE : null);
+      events.append("data:").append(MAPPER.writeValueAsString(event)).append("\n\n");
+    }
+    app.post(
+        streamPath,
+        ctx -> {
+          HuggingFaceLlamaRequests.add(
+              new OutboundRequest(ctx.body(), ctx.headerMap(), ctx.queryParamMap()));
+          ctx.contentType("text/event-stream").result(events.toString());
+        });
+    HuggingFaceConfig config =
+        HuggingFaceConfig.builder("api key")
+            .endpoint(endpoint.resolve(streamPath).toString())
+            .tokenLimit(100)
+            .stream(true)
+            .build();
+    HuggingFaceLlamaPlugin<FBMessage> plugin = new HuggingFaceLlamaPlugin<>(config);
+
+    List<String> received = new ArrayList<>();
+    FBMessage message = plugin.handleStreaming(STACK, received::add).join();
+    assertThat(message.message()).isEqualTo(TEST_MESSAGE);
+    assertThat(received).containsExactly("this", " is", " a", " test", " message");
+    @Nullable OutboundRequest or = HuggingFaceLlamaRequests.poll(500, TimeUnit.MILLISECONDS);
+    assertThat(or).isNotNull();
+    assertThat(MAPPER.readTree(or.body()).get("stream").booleanValue()).isTrue();
+
+    assertThat(plugin.handle(STACK).message()).isEqualTo(TEST_MESSAGE);
   }
 
   @Test
@@ -207,6 +254,40 @@ public class HuggingFaceLlamaPluginTest {
     assertThat(createdPayload.get()).isEqualTo(TEST_PAYLOAD);
   }
 
+  @Test
+  void cachedPromptMatchesFreshPrompt() {
+    HuggingFaceConfig config =
+        HuggingFaceConfig.builder("api key")
+            .endpoint(endpoint.toString())
+            .tokenLimit(200)
+            .maxInputTokens(100)
+            .build();
+    HuggingFaceLlamaPrompt<FBMessage> cached =
+        new HuggingFaceLlamaPrompt<>(config.systemMessage(), config.maxInputTokens());
+    ThreadState<FBMessage> thread = STACK;
+    List<ThreadState<FBMessage>> history = new ArrayList<>();
+    // enough turns that the oldest messages have to make way for new ones
+    for (int i = 0; i < 20; i++) {
+      thread =
+          i % 2 == 0
+              ? thread.with(thread.newMessageFromBot(Instant.now(), "response number " + i))
+              : thread.with(
+                  thread.newMessageFromUser(Instant.now(), "question " + i, Identifier.random()));
+      history.add(thread);
+      assertThat(cached.createPrompt(thread))
+          .isEqualTo(
+              new HuggingFaceLlamaPrompt<FBMessage>(
+                      config.systemMessage(), config.maxInputTokens())
+                  .createPrompt(thread));
+    }
+    // an earlier state of the thread does not continue the cached window
+    ThreadState<FBMessage> earlier = history.get(3);
+    assertThat(cached.createPrompt(earlier))
+        .isEqualTo(
+            new HuggingFaceLlamaPrompt<FBMessage>(config.systemMessage(), config.maxInputTokens())
+                .createPrompt(earlier));
+  }
+
   @BeforeEach
   void setUpMinConfig() {
     minimalConfig = MAPPER.createObjectNode();
@@ -0,0 +1,57 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.llm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.meta.cp4m.Identifier;
+import com.meta.cp4m.message.FBMessage;
+import com.meta.cp4m.message.Message.Role;
+import com.meta.cp4m.message.MessageFactory;
+import com.meta.cp4m.message.ThreadState;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class LlamaTokenizerTest {
+
+  @Test
+  void sharedOnce() {
+    assertThat(LlamaTokenizer.shared()).isSameAs(LlamaTokenizer.shared());
+  }
+
+  @Test
+  void batchMatchesSingle() {
+    LlamaTokenizer tokenizer = LlamaTokenizer.shared();
+    ThreadState<FBMessage> thread =
+        ThreadState.of(
+            MessageFactory.instance(FBMessage.class)
+                .newMessage(
+                    Instant.now(),
+                    "hello, how are you today?",
+                    Identifier.random(),
+                    Identifier.random(),
+                    Identifier.random(),
+                    Role.USER));
+    thread = thread.with(thread.newMessageFromBot(Instant.now(), "I'm doing well, thank you"));
+    List<FBMessage> first = thread.messages();
+    int[] firstCounts = tokenizer.tokenCounts(first);
+    assertThat(firstCounts)
+        .containsExactly(
+            first.stream().mapToInt(m -> tokenizer.tokenCount(m.message())).toArray());
+
+    // the first two counts come from the cache, only the new message is encoded
+    thread = thread.with(thread.newMessageFromUser(Instant.now(), "great", Identifier.random()));
+    int[] counts = tokenizer.tokenCounts(thread.messages());
+    assertThat(counts)
+        .startsWith(firstCounts)
+        .endsWith(tokenizer.tokenCount("great"))
+        .hasSize(3);
+  }
+}
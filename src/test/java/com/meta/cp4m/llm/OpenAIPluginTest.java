@@ -10,10 +10,12 @@ package com.meta.cp4m.llm;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.SoftAssertions.assertSoftly;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.meta.cp4m.Identifier;
 import com.meta.cp4m.Service;
@@ -28,12 +30,17 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -120,6 +127,87 @@ public class OpenAIPluginTest {
     assertThat(MAPPER.readTree(or.body()).get("model").textValue()).isEqualTo(model.toString());
   }
 
+  @Test
+  void handleAsync() throws IOException {
+    OpenAIConfig config = OpenAIConfig.builder(OpenAIModel.GPT4, "api key").build();
+    OpenAIPlugin<FBMessage> plugin = new OpenAIPlugin<FBMessage>(config).endpoint(endpoint);
+    CompletableFuture<FBMessage> future = plugin.handleAsync(THREAD);
+    assertThat(future).succeedsWithin(Duration.ofSeconds(5));
+    assertThat(future.join().message()).isEqualTo(TEST_MESSAGE);
+
+    String errorPath = "/error";
+    app.post(errorPath, ctx -> ctx.status(500));
+    plugin.endpoint(endpoint.resolve(errorPath));
+    assertThat(plugin.handleAsync(THREAD))
+        .failsWithin(Duration.ofSeconds(5))
+        .withThrowableOfType(ExecutionException.class)
+        .withCauseInstanceOf(IOException.class);
+    assertThatThrownBy(() -> plugin.handle(THREAD)).isInstanceOf(IOException.class);
+  }
+
+  @Test
+  void streaming() throws IOException, InterruptedException {
+    String streamPath = "/stream";
+    StringBuilder events = new StringBuilder();
+    for (String content : List.of("", "this is", " a test", " message")) {
+      ObjectNode event =
+          MAPPER
+              .createObjectNode()
+              .put("id", "chatcmpl-123")
+              .put("object", "chat.completion.chunk")
+              .put("created", Instant.now().getEpochSecond());
+      event.putArray("choices").addObject().put("index", 0).putObject("delta").put("content", content);
+      events.append("data: ").append(MAPPER.writeValueAsString(event)).append("\n\n");
+    }
+    events.append("data: [DONE]\n\n");
+    app.post(
+        streamPath,
+        ctx -> {
+          openAIRequests.add(new OutboundRequest(ctx.body(), ctx.headerMap(), ctx.queryParamMap()));
+          ctx.contentType("text/event-stream").result(events.toString());
+        });
+    OpenAIConfig config = OpenAIConfig.builder(OpenAIModel.GPT4, "api key").stream(true).build();
+    OpenAIPlugin<FBMessage> plugin =
+        new OpenAIPlugin<FBMessage>(config)
+            .endpoint(endpoint.resolve(streamPath));
+
+    List<String> received = new ArrayList<>();
+    FBMessage message = plugin.handleStreaming(THREAD, received::add).join();
+    assertThat(message.message()).isEqualTo(TEST_MESSAGE);
+    assertThat(received).containsExactly("this is", " a test", " message");
+    @Nullable OutboundRequest or = openAIRequests.poll(500, TimeUnit.MILLISECONDS);
+    assertThat(or).isNotNull();
+    assertThat(MAPPER.readTree(or.body()).get("stream").booleanValue()).isTrue();
+
+    assertThat(plugin.handle(THREAD).message()).isEqualTo(TEST_MESSAGE);
+  }
+
+  @Test
+  void streamingChunksWithoutAllFields() throws IOException {
+    String streamPath = "/sparseStream";
+    StringBuilder events = new StringBuilder();
+    for (String content : List.of("this is", " a test", " message")) {
+      // no created field in any chunk
+      ObjectNode event = MAPPER.createObjectNode().put("object", "chat.completion.chunk");
+      event.putArray("choices").addObject().put("index", 0).putObject("delta").put("content", content);
+      events.append("data: ").append(MAPPER.writeValueAsString(event)).append("\n\n");
+    }
+    ObjectNode usage = MAPPER.createObjectNode().put("object", "chat.completion.chunk");
+    usage.putArray("choices");
+    usage.putObject("usage").put("total_tokens", 10);
+    events.append("data: ").append(MAPPER.writeValueAsString(usage)).append("\n\n");
+    events.append("data: [DONE]\n\n");
+    app.post(streamPath, ctx -> ctx.contentType("text/event-stream").result(events.toString()));
+    OpenAIConfig config = OpenAIConfig.builder(OpenAIModel.GPT4, "api key").stream(true).build();
+    OpenAIPlugin<FBMessage> plugin =
+        new OpenAIPlugin<FBMessage>(config).endpoint(endpoint.resolve(streamPath));
+
+    Instant before = Instant.now().minusSeconds(1);
+    FBMessage message = plugin.handleStreaming(THREAD, text -> {}).join();
+    assertThat(message.message()).isEqualTo(TEST_MESSAGE);
+    assertThat(message.timestamp()).isAfter(before);
+  }
+
   @BeforeEach
   void setUpMinConfig() {
     minimalConfig = MAPPER.createObjectNode();
@@ -184,6 +272,84 @@ public class OpenAIPluginTest {
     assertThat(openAIRequests).hasSize(0);
   }
 
+  @Test
+  void oldestMessagesArePruned() throws IOException, InterruptedException {
+    OpenAIConfig config =
+        OpenAIConfig.builder(OpenAIModel.GPT35TURBO, "lkjasdlkjasdf").maxInputTokens(100).build();
+    OpenAIPlugin<FBMessage> plugin = new OpenAIPlugin<FBMessage>(config).endpoint(endpoint);
+    String tooLong = Stream.generate(() -> "0123456789").limit(20).collect(Collectors.joining(" "));
+    ThreadState<FBMessage> thread =
+        THREAD.with(THREAD.newMessageFromUser(Instant.now(), tooLong, Identifier.random()));
+    thread = thread.with(thread.newMessageFromBot(Instant.now(), "1"));
+    thread = thread.with(thread.newMessageFromUser(Instant.now(), "2", Identifier.random()));
+
+    // the counts worked out for the first request are reused for the second
+    for (int i = 0; i < 2; i++) {
+      plugin.handle(thread);
+      @Nullable OutboundRequest or = openAIRequests.poll(500, TimeUnit.MILLISECONDS);
+      assertThat(or).isNotNull();
+      assertThat(MAPPER.readTree(or.body()).get("messages"))
+          .extracting(m -> m.get("content").textValue())
+          .containsExactly(config.systemMessage(), "1", "2");
+    }
+  }
+
+  @Test
+  void responseFieldsInAnyOrder() throws IOException, URISyntaxException, UnknownHostException {
+    String path = "/reordered";
+    app.post(
+        path,
+        ctx ->
+            ctx.result(
+                """
+                {"choices": [
+                  {"message": {"content": "first", "role": "assistant"}, "index": 0},
+                  {"index": 1, "message": {"role": "assistant", "content": "second"}}
+                ],
+                "usage": {"prompt_tokens": 1, "completion_tokens": 1, "total_tokens": 2},
+                "id": "x", "created": 1700000000}
+                """));
+    OpenAIConfig config = OpenAIConfig.builder(OpenAIModel.GPT4, "api key").build();
+    OpenAIPlugin<FBMessage> plugin =
+        new OpenAIPlugin<FBMessage>(config)
+            .endpoint(
+                URIBuilder.localhost()
+                    .setScheme("http")
+                    .appendPath(path)
+                    .setPort(app.port())
+                    .build());
+    FBMessage message = plugin.handle(THREAD);
+    assertThat(message.message()).isEqualTo("first");
+    assertThat(message.timestamp()).isEqualTo(Instant.ofEpochSecond(1700000000));
+  }
+
+  @Test
+  void responseParsedAsItArrives() throws IOException, URISyntaxException, UnknownHostException {
+    String path = "/large";
+    // big enough to arrive in many chunks, with multibyte characters split between them
+    String content = "☃ snow ".repeat(200_000);
+    ObjectNode response = MAPPER.createObjectNode().put("content", "not this one");
+    ArrayNode choices = response.putArray("choices");
+    choices.addObject().putObject("message").put("role", "assistant").put("content", content);
+    choices.addObject().putObject("message").put("content", "nor this one");
+    response.put("created", 1700000000);
+    byte[] body = MAPPER.writeValueAsBytes(response);
+    app.post(path, ctx -> ctx.result(body));
+    app.post(path + "/truncated", ctx -> ctx.result(Arrays.copyOf(body, body.length / 2)));
+    OpenAIConfig config = OpenAIConfig.builder(OpenAIModel.GPT4, "api key").build();
+    URIBuilder uri = URIBuilder.localhost().setScheme("http").setPort(app.port());
+
+    OpenAIPlugin<FBMessage> plugin =
+        new OpenAIPlugin<FBMessage>(config).endpoint(uri.setPath(path).build());
+    FBMessage message = plugin.handle(THREAD);
+    assertThat(message.message()).isEqualTo(content);
+    assertThat(message.timestamp()).isEqualTo(Instant.ofEpochSecond(1700000000));
+
+    OpenAIPlugin<FBMessage> truncated =
+        new OpenAIPlugin<FBMessage>(config).endpoint(uri.setPath(path + "/truncated").build());
+    assertThatThrownBy(() -> truncated.handle(THREAD)).isInstanceOf(IOException.class);
+  }
+
   @Test
   void orderedCorrectly() throws IOException, InterruptedException {
     OpenAIConfig config =
@@ -0,0 +1,51 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.llm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+class RequestTemplateTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  @Test
+  void constantFieldsFollowRequestFields() throws IOException {
+    ObjectNode constant = MAPPER.createObjectNode().put("model", "m").put("n", 1);
+    constant.putArray("stop").add("a").add("\"b\"");
+    RequestTemplate template = new RequestTemplate(MAPPER, constant);
+
+    byte[] body =
+        template.render(
+            generator -> {
+              generator.writeStringField("user", "u");
+              generator.writeArrayFieldStart("messages");
+              generator.writeString("hi \"there\"");
+              generator.writeEndArray();
+            });
+    ObjectNode expected = constant.deepCopy().put("user", "u");
+    expected.putArray("messages").add("hi \"there\"");
+    assertThat(MAPPER.readTree(body)).isEqualTo(expected);
+
+    assertThat(MAPPER.readTree(template.render(generator -> {}))).isEqualTo(constant);
+  }
+
+  @Test
+  void noConstantFields() throws IOException {
+    RequestTemplate template = new RequestTemplate(MAPPER, MAPPER.createObjectNode());
+    assertThat(MAPPER.readTree(template.render(generator -> generator.writeNumberField("a", 1))))
+        .isEqualTo(MAPPER.createObjectNode().put("a", 1));
+    assertThat(MAPPER.readTree(template.render(generator -> {})))
+        .isEqualTo(MAPPER.createObjectNode());
+  }
+}
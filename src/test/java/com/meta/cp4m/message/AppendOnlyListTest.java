@@ -0,0 +1,57 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.message;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class AppendOnlyListTest {
+
+  @Test
+  void append() {
+    AppendOnlyList<Integer> list = AppendOnlyList.of(0);
+    List<Integer> expected = new ArrayList<>(List.of(0));
+    for (int i = 1; i < 100; i++) {
+      AppendOnlyList<Integer> next = list.append(i);
+      expected.add(i);
+      assertThat(next).isEqualTo(expected);
+      assertThat(list).hasSize(i);
+      list = next;
+    }
+    assertThatThrownBy(() -> AppendOnlyList.of(0).get(1))
+        .isInstanceOf(IndexOutOfBoundsException.class);
+  }
+
+  @Test
+  void branchesDoNotSeeEachOther() {
+    AppendOnlyList<String> base = AppendOnlyList.of("a").append("b");
+    AppendOnlyList<String> left = base.append("left");
+    AppendOnlyList<String> right = base.append("right");
+    assertThat(base).containsExactly("a", "b");
+    assertThat(left).containsExactly("a", "b", "left");
+    assertThat(right).containsExactly("a", "b", "right");
+    assertThat(left.append("c")).containsExactly("a", "b", "left", "c");
+    assertThat(right.append("c")).containsExactly("a", "b", "right", "c");
+  }
+
+  @Test
+  void insert() {
+    AppendOnlyList<String> list = AppendOnlyList.of("a").append("c");
+    AppendOnlyList<String> inserted = list.insert(1, "b");
+    assertThat(inserted).containsExactly("a", "b", "c");
+    assertThat(list).containsExactly("a", "c");
+    assertThat(inserted.insert(0, "0").append("d")).containsExactly("0", "a", "b", "c", "d");
+    assertThat(inserted.insert(3, "d")).containsExactly("a", "b", "c", "d");
+    assertThatThrownBy(() -> list.insert(3, "x")).isInstanceOf(IndexOutOfBoundsException.class);
+  }
+}
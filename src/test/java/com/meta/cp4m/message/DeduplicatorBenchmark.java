@@ -0,0 +1,96 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.message;
+
+import com.meta.cp4m.Identifier;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link Deduplicator} with the synchronized {@link LinkedHashSet} it replaced. Run with a
+ * growing number of threads to see how each scales, e.g.
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark="DeduplicatorBenchmark -t 8"
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class DeduplicatorBenchmark {
+
+  /** same size as the message handlers use */
+  private static final int CAPACITY = 10_000;
+
+  /** about one in five ids is a repeat that is still remembered, like a webhook retry */
+  private static final int ID_POOL = CAPACITY * 5;
+
+  @Param({"sharded", "synchronized"})
+  public String implementation;
+
+  private Predicate<Identifier> deduplicator;
+  private Identifier[] ids;
+
+  @Setup
+  public void setup() {
+    deduplicator =
+        switch (implementation) {
+          case "sharded" -> new Deduplicator<Identifier>(CAPACITY)::addAndGetIsDuplicate;
+          case "synchronized" ->
+              new SynchronizedDeduplicator<Identifier>(CAPACITY)::addAndGetIsDuplicate;
+          default -> throw new IllegalArgumentException(implementation);
+        };
+    ids = new Identifier[ID_POOL];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = Identifier.random();
+    }
+  }
+
+  @Benchmark
+  public boolean addAndGetIsDuplicate() {
+    return deduplicator.test(ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+  }
+
+  /** the implementation before it was sharded, kept as a baseline */
+  private static final class SynchronizedDeduplicator<T> {
+    private final int capacity;
+    private final LinkedHashSet<T> set;
+
+    private SynchronizedDeduplicator(int capacity) {
+      this.capacity = capacity;
+      this.set = new LinkedHashSet<>(capacity);
+    }
+
+    synchronized boolean addAndGetIsDuplicate(T value) {
+      boolean added = set.add(value);
+      if (added && set.size() > capacity) {
+        set.remove(set.iterator().next());
+      }
+      return !added;
+    }
+  }
+}
@@ -10,6 +10,8 @@ package com.meta.cp4m.message;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
 
@@ -40,4 +42,22 @@ class DeduplicatorTest {
     assertThat(deduplicator.size()).isEqualTo(5);
     assertThat(deduplicator.addAndGetIsDuplicate("1")).isFalse();
   }
+
+  @Test
+  void concurrentAddsReportEachValueOnce() {
+    Deduplicator<Integer> deduplicator = new Deduplicator<>(100_000);
+    AtomicInteger unique = new AtomicInteger();
+    IntStream.range(0, 8)
+        .parallel()
+        .forEach(
+            t -> {
+              for (int i = 0; i < 50_000; i++) {
+                if (!deduplicator.addAndGetIsDuplicate(i)) {
+                  unique.incrementAndGet();
+                }
+              }
+            });
+    assertThat(unique).hasValue(50_000);
+    assertThat(deduplicator.size()).isEqualTo(50_000);
+  }
 }
@@ -15,6 +15,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.ImmutableMap;
 import com.meta.cp4m.Identifier;
 import com.meta.cp4m.Service;
@@ -108,6 +109,16 @@ public class FBMessageHandlerTest {
     ArrayNode messagingArray = (ArrayNode) duplicateMessage.get("entry").get(0).get("messaging");
     messagingArray.add(messagingArray.get(0));
 
+    ObjectNode reorderedMessage = MAPPER.createObjectNode();
+    ObjectNode sampleMessaging = (ObjectNode) messagingArray.get(0);
+    // message and timestamp first, the opposite of the order Meta sends
+    ObjectNode reorderedMessaging =
+        reorderedMessage.putArray("entry").addObject().putArray("messaging").addObject();
+    for (String field : List.of("message", "timestamp", "recipient", "sender")) {
+      reorderedMessaging.set(field, sampleMessaging.get(field));
+    }
+    reorderedMessage.put("object", "page");
+
     JsonNode duplicateEntry = MAPPER.readTree(SAMPLE_MESSAGE);
     ArrayNode entryArray = (ArrayNode) duplicateMessage.get("entry");
     entryArray.add(entryArray.get(0));
@@ -192,6 +203,27 @@ public class FBMessageHandlerTest {
                         "{\"object\": \"page\", \"entry\": [{\"messaging\": [{\"recipient\": {\"id\": 123}, \"sender\": {\"id\": 123}, \"timestamp\": 0, \"message\": {}}]}]}",
                         r),
                 false),
+            new TestArgument(
+                "fields in a different order",
+                200,
+                r -> createMessageRequest(MAPPER.writeValueAsString(reorderedMessage), r),
+                true),
+            new TestArgument(
+                "echo of a message sent by the page",
+                200,
+                r ->
+                    createMessageRequest(
+                        "{\"object\": \"page\", \"entry\": [{\"messaging\": [{\"recipient\": {\"id\": 123}, \"sender\": {\"id\": 123}, \"timestamp\": 0, \"message\": {\"is_echo\": true, \"mid\": \"abc123789\", \"text\": \"hi\"}}]}]}",
+                        r),
+                false),
+            new TestArgument(
+                "delivery and read receipts",
+                200,
+                r ->
+                    createMessageRequest(
+                        "{\"object\": \"page\", \"entry\": [{\"messaging\": [{\"recipient\": {\"id\": 123}, \"sender\": {\"id\": 123}, \"timestamp\": 0, \"delivery\": {\"mids\": [\"abc\"], \"watermark\": 0}}, {\"recipient\": {\"id\": 123}, \"sender\": {\"id\": 123}, \"timestamp\": 0, \"read\": {\"watermark\": 0}}]}]}",
+                        r),
+                false),
             new TestArgument(
                 "message object without text",
                 200,
@@ -365,7 +397,7 @@ public class FBMessageHandlerTest {
     FBMessage bigMessage =
         new FBMessage(
             Instant.now(), Identifier.random(), pageId, Identifier.random(), bigText, Role.USER);
-    messageHandler.respond(bigMessage);
+    messageHandler.respond(bigMessage).join();
     assertThat(requests.size()).isEqualTo(300);
     assertThat(requests).allSatisfy(m -> assertThat(m.body()).contains("0123456789"));
   }
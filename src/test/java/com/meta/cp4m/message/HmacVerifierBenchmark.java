@@ -0,0 +1,88 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.message;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.apache.hc.client5.http.utils.Hex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link HmacVerifier} with the signature check it replaced, which created a new {@link
+ * Mac} for every request and compared hex strings.
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark="HmacVerifierBenchmark"
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HmacVerifierBenchmark {
+
+  private static final String APP_SECRET = "f74a638462f975e9eadfcbb84e4aa06b";
+
+  /** a single text message is about 400 bytes, a batched delivery can be several kilobytes */
+  @Param({"400", "4000"})
+  public int size;
+
+  private HmacVerifier verifier;
+  private String body;
+  private byte[] bodyBytes;
+  private String header;
+
+  @Setup
+  public void setup() {
+    byte[] random = new byte[size];
+    ThreadLocalRandom.current().nextBytes(random);
+    body = Hex.encodeHexString(random).substring(0, size);
+    bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+    verifier = new HmacVerifier(APP_SECRET);
+    header = "sha256=" + verifier.hex(bodyBytes);
+  }
+
+  /** the handlers now sign the body bytes Javalin already holds */
+  @Benchmark
+  public boolean pooled() {
+    return verifier.verify(bodyBytes, header);
+  }
+
+  /** the handlers used to sign the body after Javalin decoded it to a string */
+  @Benchmark
+  public boolean perRequest() throws NoSuchAlgorithmException, InvalidKeyException {
+    String[] hashParts = header.strip().split("=");
+    if (hashParts.length != 2) {
+      return false;
+    }
+    Mac sha256HMAC = Mac.getInstance("HmacSHA256");
+    sha256HMAC.init(
+        new SecretKeySpec(APP_SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+    String calculated =
+        Hex.encodeHexString(sha256HMAC.doFinal(body.getBytes(StandardCharsets.UTF_8)));
+    return hashParts[1].equals(calculated);
+  }
+}
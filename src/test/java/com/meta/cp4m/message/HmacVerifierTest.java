@@ -0,0 +1,58 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.message;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class HmacVerifierTest {
+
+  // RFC 4231 test case 2
+  private static final byte[] BODY =
+      "what do ya want for nothing?".getBytes(StandardCharsets.UTF_8);
+  private static final String SIGNATURE =
+      "5bdcc146bf60754e6a042426089575c75a003f089d2739839dec58b964ec3843";
+
+  private final HmacVerifier verifier = new HmacVerifier("Jefe");
+
+  @Test
+  void verify() {
+    assertThat(verifier.hex(BODY)).isEqualTo(SIGNATURE);
+    assertThat(verifier.verify(BODY, "sha256=" + SIGNATURE)).isTrue();
+    assertThat(verifier.verify(BODY, " sha256=" + SIGNATURE.toUpperCase() + "\n")).isTrue();
+
+    assertThat(verifier.verify(BODY, SIGNATURE)).isFalse();
+    assertThat(verifier.verify(BODY, "sha1=" + SIGNATURE)).isFalse();
+    assertThat(verifier.verify(BODY, "sha256=" + SIGNATURE.substring(2))).isFalse();
+    assertThat(verifier.verify(BODY, "sha256=" + SIGNATURE.replace('5', 'x'))).isFalse();
+    assertThat(verifier.verify(BODY, "sha256=" + SIGNATURE.replace('5', '6'))).isFalse();
+    assertThat(new HmacVerifier("not jefe").verify(BODY, "sha256=" + SIGNATURE)).isFalse();
+  }
+
+  @Test
+  void concurrentUse() throws Exception {
+    List<Future<Boolean>> results;
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      results =
+          IntStream.range(0, 1_000)
+              .mapToObj(i -> executor.submit(() -> verifier.verify(BODY, "sha256=" + SIGNATURE)))
+              .toList();
+    }
+    for (Future<Boolean> result : results) {
+      assertThat(result.get()).isTrue();
+    }
+  }
+}
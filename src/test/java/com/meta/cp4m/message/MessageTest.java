@@ -9,6 +9,7 @@
 package com.meta.cp4m.message;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import com.meta.cp4m.Identifier;
 import java.time.Instant;
@@ -44,4 +45,50 @@ class MessageTest {
             Message.Role.ASSISTANT);
     assertThat(message.threadId()).isNotEqualTo(response.threadId());
   }
+
+  @Test
+  void threadIdIsWorkedOutOnce() {
+    Identifier user = Identifier.from(1);
+    Identifier bot = Identifier.from(2);
+    WAMessage message =
+        MessageFactory.instance(WAMessage.class)
+            .newMessage(Instant.now(), "", user, bot, Identifier.random(), Message.Role.USER);
+    assertThat(message.threadId()).isEqualTo(Message.threadId(bot, user));
+    assertThat(message.threadId()).isSameAs(message.threadId());
+
+    ThreadState<WAMessage> thread = ThreadState.of(message);
+    WAMessage reply = thread.newMessageFromBot(Instant.now(), "");
+    assertThat(reply.threadId()).isSameAs(message.threadId());
+    assertThat(reply.senderId()).isEqualTo(bot);
+  }
+
+  @Test
+  void threadIdMustMatchSenderAndRecipient() {
+    Identifier user = Identifier.from(1);
+    Identifier bot = Identifier.from(2);
+    Instant now = Instant.now();
+    WAMessage message =
+        new WAMessage(
+            now,
+            Identifier.random(),
+            user,
+            bot,
+            "",
+            Message.Role.USER,
+            Message.threadId(bot, user));
+    assertThat(message.threadId()).isEqualTo(Message.threadId(user, bot));
+    message = new WAMessage(now, Identifier.random(), user, bot, "", Message.Role.USER, null);
+    assertThat(message.threadId()).isEqualTo(Message.threadId(user, bot));
+    assertThatThrownBy(
+            () ->
+                new FBMessage(
+                    now,
+                    Identifier.random(),
+                    user,
+                    bot,
+                    "",
+                    Message.Role.USER,
+                    Message.threadId(user, Identifier.from(3))))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
 }
@@ -59,8 +59,15 @@ public class ServiceTestHarness<T extends Message> {
     DummyLLMPlugin<WAMessage> llmPlugin = new DummyLLMPlugin<>("dummy plugin response text");
     WAMessageHandler handler =
         WAMessengerConfig.of(VERIFY_TOKEN, APP_SECRET, ACCESS_TOKEN).toMessageHandler();
-    ServiceTestHarness<WAMessage> harness = new ServiceTestHarness<>(chatStore, handler, llmPlugin);
-    handler.baseUrlFactory(ignored -> harness.webserverURI());
+    return pointHandlerAtWebserver(new ServiceTestHarness<>(chatStore, handler, llmPlugin));
+  }
+
+  private static <T extends Message> ServiceTestHarness<T> pointHandlerAtWebserver(
+      ServiceTestHarness<T> harness) {
+    // derived harnesses share the handler, it has to send to the newest harness's webserver
+    if (harness.handler instanceof WAMessageHandler waHandler) {
+      waHandler.baseUrlFactory(ignored -> harness.webserverURI());
+    }
     return harness;
   }
 
@@ -147,11 +154,11 @@ public class ServiceTestHarness<T extends Message> {
   }
 
   public @NewInstance ServiceTestHarness<T> withLLMPlugin(LLMPlugin<T> plugin) {
-    return new ServiceTestHarness<>(chatStore, handler, plugin);
+    return pointHandlerAtWebserver(new ServiceTestHarness<>(chatStore, handler, plugin));
   }
 
   public @NewInstance ServiceTestHarness<T> withChatStore(ChatStore<T> chatStore) {
-    return new ServiceTestHarness<>(chatStore, handler, llmPlugin);
+    return pointHandlerAtWebserver(new ServiceTestHarness<>(chatStore, handler, llmPlugin));
   }
 
   public @This ServiceTestHarness<T> start() {
@@ -0,0 +1,193 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.message;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.toml.TomlMapper;
+import com.meta.cp4m.Identifier;
+import com.meta.cp4m.configuration.ConfigurationUtils;
+import com.meta.cp4m.http.AsyncHttpClient;
+import com.meta.cp4m.http.FailingHttpClient;
+import io.javalin.Javalin;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hc.core5.net.URIBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+class SharedDeduplicatorTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final String PATH = "/ids";
+
+  /** stands in for the key-value service, ttls are ignored */
+  private final Set<String> stored = ConcurrentHashMap.newKeySet();
+
+  private final AtomicInteger requests = new AtomicInteger();
+  private Javalin app;
+  private URI endpoint;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    app = Javalin.create();
+    app.post(
+        PATH,
+        ctx -> {
+          requests.incrementAndGet();
+          // slow enough that concurrent callers have to share requests
+          Thread.sleep(20);
+          JsonNode body = MAPPER.readTree(ctx.body());
+          assertThat(body.get("ttl_seconds").asLong()).isEqualTo(Duration.ofHours(24).toSeconds());
+          ObjectNode response = MAPPER.createObjectNode();
+          ArrayNode duplicates = response.putArray("duplicates");
+          body.get("ids").forEach(id -> duplicates.add(!stored.add(id.textValue())));
+          ctx.result(MAPPER.writeValueAsString(response));
+        });
+    app.start(0);
+    endpoint =
+        URIBuilder.localhost().setScheme("http").appendPath(PATH).setPort(app.port()).build();
+  }
+
+  @AfterEach
+  void tearDown() {
+    app.close();
+  }
+
+  private SharedDeduplicator node() {
+    return new SharedDeduplicator(
+        endpoint, AsyncHttpClient.shared(), Duration.ofHours(24), 256, 2, Duration.ofSeconds(5), 8);
+  }
+
+  @Test
+  void retriesToAnotherInstanceAreDuplicates() {
+    SharedDeduplicator first = node();
+    SharedDeduplicator second = node();
+    Identifier id = Identifier.from("m_abc");
+    assertThat(first.addAndGetIsDuplicate(id)).isFalse();
+    assertThat(second.addAndGetIsDuplicate(id)).isTrue();
+
+    // repeats on the same instance are answered in-process
+    int sent = requests.get();
+    assertThat(first.addAndGetIsDuplicate(id)).isTrue();
+    assertThat(requests.get()).isEqualTo(sent);
+  }
+
+  @Test
+  void concurrentChecksAreBatched() throws Exception {
+    List<SharedDeduplicator> nodes = List.of(node(), node());
+    int ids = 500;
+    List<Future<Boolean>> results = new ArrayList<>();
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < ids * 2; i++) {
+        // every id is delivered once to each instance
+        SharedDeduplicator node = nodes.get(i % 2);
+        Identifier id = Identifier.from(i / 2);
+        results.add(executor.submit(() -> node.addAndGetIsDuplicate(id)));
+      }
+    }
+    long unique = 0;
+    for (Future<Boolean> result : results) {
+      if (!result.get()) {
+        unique++;
+      }
+    }
+    assertThat(unique).isEqualTo(ids);
+    assertThat(requests.get()).isLessThan(ids);
+  }
+
+  @Test
+  void unreachableStoreTreatsIdsAsNew() {
+    app.stop();
+    SharedDeduplicator deduplicator = node();
+    assertThat(deduplicator.addAndGetIsDuplicate(Identifier.from("m_abc"))).isFalse();
+    // the in-process deduplicator still catches repeats
+    assertThat(deduplicator.addAndGetIsDuplicate(Identifier.from("m_abc"))).isTrue();
+  }
+
+  @Test
+  // a stuck caller cannot be interrupted, so the test runs on a thread it can abandon
+  @Timeout(value = 10, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+  void failedSendsDoNotStopTheSender() {
+    try (AsyncHttpClient failing = new FailingHttpClient()) {
+      SharedDeduplicator deduplicator =
+          new SharedDeduplicator(
+              endpoint, failing, Duration.ofHours(24), 256, 2, Duration.ofSeconds(5), 8);
+      // every batch fails before it is sent, the sender has to survive to answer the next one
+      for (int i = 0; i < 5; i++) {
+        assertThat(deduplicator.addAndGetIsDuplicate(Identifier.from(i))).isFalse();
+      }
+    }
+  }
+
+  @Test
+  void config() throws Exception {
+    TomlMapper mapper = ConfigurationUtils.tomlMapper();
+    JsonNode node =
+        mapper.readTree(
+            """
+            type = "shared"
+            url = "%s"
+            max_batch_size = 10
+            timeout_ms = 5000
+            """
+                .formatted(endpoint));
+    DeduplicatorConfig config = mapper.convertValue(node, DeduplicatorConfig.class);
+    assertThat(config)
+        .isInstanceOfSatisfying(
+            SharedDeduplicatorConfig.class,
+            c -> {
+              assertThat(c.url()).isEqualTo(endpoint);
+              assertThat(c.ttl()).isEqualTo(Duration.ofHours(24));
+              assertThat(c.maxBatchSize()).isEqualTo(10);
+              assertThat(c.maxInFlight()).isEqualTo(4);
+              assertThat(c.timeout()).isEqualTo(Duration.ofMillis(5000));
+              assertThat(c.localCapacity()).isEqualTo(10_000);
+            });
+    DuplicateFilter<Identifier> filter = config.toFilter();
+    assertThat(filter.addAndGetIsDuplicate(Identifier.from("abc"))).isFalse();
+    assertThat(stored).contains("abc");
+    // the filter goes through the client it is given
+    try (AsyncHttpClient failing = new FailingHttpClient()) {
+      assertThat(config.toFilter(failing).addAndGetIsDuplicate(Identifier.from("def"))).isFalse();
+      assertThat(stored).doesNotContain("def");
+    }
+
+    ObjectMapper json = ConfigurationUtils.jsonMapper();
+    for (String invalid :
+        new String[] {
+          "{\"type\": \"shared\"}",
+          "{\"type\": \"shared\", \"url\": \"/ids\"}",
+          "{\"type\": \"shared\", \"url\": \"http://localhost\", \"ttl_hours\": 0}",
+          "{\"type\": \"shared\", \"url\": \"http://localhost\", \"max_batch_size\": 0}",
+          "{\"type\": \"shared\", \"url\": \"http://localhost\", \"max_in_flight\": 0}",
+          "{\"type\": \"shared\", \"url\": \"http://localhost\", \"timeout_ms\": 0}",
+          "{\"type\": \"shared\", \"url\": \"http://localhost\", \"local_capacity\": 0}",
+        }) {
+      assertThatThrownBy(
+              () -> json.convertValue(json.readTree(invalid), DeduplicatorConfig.class))
+          .isInstanceOf(IllegalArgumentException.class);
+    }
+  }
+}
@@ -10,6 +10,9 @@ package com.meta.cp4m.message;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
 import org.assertj.core.data.Index;
 import org.junit.jupiter.api.Test;
 
@@ -41,4 +44,71 @@ class TextChunkerTest {
         .hasSize(7)
         .containsSequence("i am short", "I", "am", "longer", "longerthan", "tencharact", "ers");
   }
+
+  @Test
+  void incrementalReleasesAtBoundary() {
+    TextChunker.Incremental chunker = TextChunker.standard(100).incremental();
+    assertThat(chunker.append("the first ")).isEmpty();
+    assertThat(chunker.append("paragraph\n")).isEmpty();
+    assertThat(chunker.append("\nthe second")).containsExactly("the first paragraph");
+    assertThat(chunker.append(" paragraph\n\nthe third\n\n"))
+        .containsExactly("the second paragraph\n\nthe third");
+    assertThat(chunker.append("the end")).isEmpty();
+    assertThat(chunker.finish()).containsExactly("the end");
+    assertThat(chunker.finish()).isEmpty();
+  }
+
+  @Test
+  void incrementalReleasesFullChunks() {
+    TextChunker.Incremental chunker = TextChunker.from(10).withSeparator(" ").incremental();
+    assertThat(chunker.append("one two thir")).containsExactly("one", "two");
+    // "thir" is held back in case the next piece of text continues the word
+    assertThat(chunker.append("teen four five")).containsExactly("thirteen", "four");
+    assertThat(chunker.finish()).containsExactly("five");
+  }
+
+  @Test
+  void incrementalFindsBoundarySplitAcrossPieces() {
+    TextChunker.Incremental chunker = TextChunker.standard(100).incremental();
+    assertThat(chunker.append("one\n")).isEmpty();
+    assertThat(chunker.append(" \t ")).isEmpty();
+    assertThat(chunker.append("\ntwo")).containsExactly("one");
+
+    TextChunker.Incremental marker =
+        TextChunker.standard(100).incremental(Pattern.compile("<END>"), 5);
+    assertThat(marker.append("first<E")).isEmpty();
+    assertThat(marker.append("N")).isEmpty();
+    assertThat(marker.append("D>second")).containsExactly("first");
+    assertThat(marker.finish()).containsExactly("second");
+  }
+
+  @Test
+  void incrementalOneCharacterAtATime() {
+    String text = "the first paragraph\n\nthe second\n  \nthe third and last";
+    TextChunker.Incremental chunker = TextChunker.standard(100).incremental();
+    List<String> chunks = new ArrayList<>();
+    text.chars().forEach(c -> chunks.addAll(chunker.append(Character.toString(c))));
+    chunks.addAll(chunker.finish());
+    assertThat(chunks).containsExactly("the first paragraph", "the second", "the third and last");
+  }
+
+  @Test
+  void incrementalLongAnswerMatchesChunkingItWhole() {
+    String text =
+        "Streaming keeps users from waiting. Tokens are appended as they arrive. "
+            + "Text is held back until it can end. Held back text is split when too long. "
+            + "Words must never run together. The last sentence ends here";
+    TextChunker chunker = TextChunker.standard(40);
+    List<String> expected = chunker.chunks(text).toList();
+    for (int tokenLength = 1; tokenLength <= 7; tokenLength++) {
+      TextChunker.Incremental incremental = chunker.incremental();
+      List<String> chunks = new ArrayList<>();
+      for (int i = 0; i < text.length(); i += tokenLength) {
+        String token = text.substring(i, Math.min(text.length(), i + tokenLength));
+        chunks.addAll(incremental.append(token));
+      }
+      chunks.addAll(incremental.finish());
+      assertThat(chunks).as("tokens of %s characters", tokenLength).isEqualTo(expected);
+    }
+  }
 }
@@ -0,0 +1,117 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.message;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.toml.TomlMapper;
+import com.google.common.base.Ticker;
+import com.google.common.hash.Funnels;
+import com.meta.cp4m.Identifier;
+import com.meta.cp4m.configuration.ConfigurationUtils;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class TimeWindowDeduplicatorTest {
+
+  private final AtomicLong nanos = new AtomicLong();
+  private final Ticker ticker =
+      new Ticker() {
+        @Override
+        public long read() {
+          return nanos.get();
+        }
+      };
+
+  @Test
+  void valuesAreRememberedForTheWindow() {
+    TimeWindowDeduplicator<Integer> deduplicator =
+        new TimeWindowDeduplicator<>(
+            Funnels.integerFunnel(), Duration.ofHours(4), 1_000, 0.0001, ticker);
+    assertThat(deduplicator.addAndGetIsDuplicate(1)).isFalse();
+    assertThat(deduplicator.addAndGetIsDuplicate(1)).isTrue();
+
+    nanos.addAndGet(Duration.ofMinutes(90).toNanos());
+    assertThat(deduplicator.addAndGetIsDuplicate(2)).isFalse();
+    nanos.addAndGet(Duration.ofMinutes(150).toNanos());
+    // 1 was added 4 hours ago, 2 was added 2.5 hours ago
+    assertThat(deduplicator.addAndGetIsDuplicate(1)).isTrue();
+    assertThat(deduplicator.addAndGetIsDuplicate(2)).isTrue();
+
+    nanos.addAndGet(Duration.ofHours(1).toNanos());
+    assertThat(deduplicator.addAndGetIsDuplicate(1)).isFalse();
+    assertThat(deduplicator.addAndGetIsDuplicate(2)).isTrue();
+
+    // after a long quiet period everything has been forgotten
+    nanos.addAndGet(Duration.ofDays(3).toNanos());
+    assertThat(deduplicator.addAndGetIsDuplicate(1)).isFalse();
+    assertThat(deduplicator.addAndGetIsDuplicate(2)).isFalse();
+  }
+
+  @Test
+  void falsePositiveRate() {
+    TimeWindowDeduplicator<Integer> deduplicator =
+        new TimeWindowDeduplicator<>(
+            Funnels.integerFunnel(), Duration.ofHours(24), 100_000, 0.001, ticker);
+    long falsePositives =
+        IntStream.range(0, 50_000).filter(deduplicator::addAndGetIsDuplicate).count();
+    assertThat(falsePositives).isLessThan(50_000 / 1000 * 2);
+    assertThat(IntStream.range(0, 50_000).allMatch(deduplicator::addAndGetIsDuplicate)).isTrue();
+  }
+
+  @Test
+  void config() throws Exception {
+    TomlMapper mapper = ConfigurationUtils.tomlMapper();
+    JsonNode node =
+        mapper.readTree(
+            """
+            type = "time_window"
+            window_hours = 12
+            expected_messages = 5000
+            false_positive_rate = 0.01
+            """);
+    DeduplicatorConfig config = mapper.convertValue(node, DeduplicatorConfig.class);
+    assertThat(config)
+        .isInstanceOfSatisfying(
+            TimeWindowDeduplicatorConfig.class,
+            c -> {
+              assertThat(c.window()).isEqualTo(Duration.ofHours(12));
+              assertThat(c.expectedMessages()).isEqualTo(5000);
+              assertThat(c.falsePositiveRate()).isEqualTo(0.01);
+            });
+    DuplicateFilter<Identifier> filter = config.toFilter();
+    assertThat(filter.addAndGetIsDuplicate(Identifier.from("abc"))).isFalse();
+    assertThat(filter.addAndGetIsDuplicate(Identifier.from("abc"))).isTrue();
+
+    ObjectMapper json = ConfigurationUtils.jsonMapper();
+    assertThat(json.readValue("{\"type\": \"time_window\"}", DeduplicatorConfig.class))
+        .isInstanceOfSatisfying(
+            TimeWindowDeduplicatorConfig.class,
+            c -> assertThat(c.window()).isEqualTo(Duration.ofHours(24)));
+    assertThat(json.readValue("{\"type\": \"recent\"}", DeduplicatorConfig.class))
+        .isInstanceOfSatisfying(
+            RecentDeduplicatorConfig.class, c -> assertThat(c.capacity()).isEqualTo(10_000));
+    for (String invalid :
+        new String[] {
+          "{\"type\": \"time_window\", \"window_hours\": 0}",
+          "{\"type\": \"time_window\", \"expected_messages\": 0}",
+          "{\"type\": \"time_window\", \"false_positive_rate\": 1}",
+          "{\"type\": \"recent\", \"capacity\": 0}",
+        }) {
+      assertThatThrownBy(
+              () -> json.convertValue(json.readTree(invalid), DeduplicatorConfig.class))
+          .isInstanceOf(IllegalArgumentException.class);
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.message.webhook.whatsapp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.meta.cp4m.Identifier;
+import com.meta.cp4m.message.webhook.whatsapp.WebhookMessage.WebhookMessageType;
+import com.meta.cp4m.message.webhook.whatsapp.WebhookReader.ReceivedMessage;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.api.Test;
+
+class WebhookReaderTest {
+
+  private static final String STATUSES =
+      """
+{
+  "object": "whatsapp_business_account",
+  "entry": [
+    {
+      "id": "0",
+      "changes": [
+        {
+          "field": "messages",
+          "value": {
+            "messaging_product": "whatsapp",
+            "metadata": {
+              "display_phone_number": "16505551111",
+              "phone_number_id": "123456123"
+            },
+            "statuses": [
+              {
+                "id": "wamid.abc",
+                "status": "delivered",
+                "timestamp": "1504902988",
+                "recipient_id": "16315551181",
+                "conversation": {"id": "c", "origin": {"type": "service"}},
+                "pricing": {"billable": true, "pricing_model": "CBP", "category": "service"}
+              }
+            ]
+          }
+        }
+      ]
+    }
+  ]
+}
+""";
+
+  private static @Nullable List<ReceivedMessage> read(String body) {
+    return WebhookReader.read(body.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void matchesTheFullModel() throws Exception {
+    WebhookPayload payload =
+        Utils.JSON_MAPPER.readValue(WebhookPayloadTest.TEST_MESSAGE, WebhookPayload.class);
+    WebhookMessage expected =
+        payload.entry().iterator().next().changes().iterator().next().value().messages().stream()
+            .findFirst()
+            .orElseThrow();
+
+    assertThat(read(WebhookPayloadTest.TEST_MESSAGE))
+        .singleElement()
+        .satisfies(
+            m -> {
+              assertThat(m.phoneNumberId()).isEqualTo(Identifier.from("123456123"));
+              assertThat(m.id()).isEqualTo(expected.id());
+              assertThat(m.from()).isEqualTo(expected.from());
+              assertThat(m.timestamp()).isEqualTo(expected.timestamp());
+              assertThat(m.type()).isEqualTo(WebhookMessageType.TEXT);
+              assertThat(m.text())
+                  .isEqualTo(((TextWebhookMessage) expected).text().body())
+                  .isEqualTo("this is a text message");
+            });
+  }
+
+  @Test
+  void statusesAreSkipped() {
+    assertThat(read(STATUSES)).isNotNull().isEmpty();
+  }
+
+  @Test
+  void fieldsInAnyOrder() {
+    String body =
+        """
+        {"entry": [{"changes": [{"value": {
+          "messages": [
+            {"text": {"body": "hi"}, "type": "text", "timestamp": 10, "id": "m1", "from": "5"},
+            {"image": {"id": "i"}, "type": "image", "timestamp": "11", "id": "m2", "from": "5"}
+          ],
+          "metadata": {"phone_number_id": "7"},
+          "messaging_product": "whatsapp"
+        }}]}], "object": "whatsapp_business_account"}
+        """;
+    assertThat(read(body))
+        .containsExactly(
+            new ReceivedMessage(
+                Identifier.from(7),
+                Identifier.from("m1"),
+                Identifier.from(5),
+                Instant.ofEpochSecond(10),
+                WebhookMessageType.TEXT,
+                "hi"),
+            new ReceivedMessage(
+                Identifier.from(7),
+                Identifier.from("m2"),
+                Identifier.from(5),
+                Instant.ofEpochSecond(11),
+                WebhookMessageType.IMAGE,
+                null));
+  }
+
+  @Test
+  void unexpectedPayloadsAreLeftToTheFullModel() {
+    String message =
+        """
+        {"object": "whatsapp_business_account", "entry": [{"changes": [{"value": {
+          "messaging_product": "whatsapp", "metadata": {"phone_number_id": "7"},
+          "messages": [%s]}}]}]}
+        """;
+    // missing the id, timestamp and sender
+    assertThat(read(message.formatted("{\"type\": \"text\", \"text\": {\"body\": \"hi\"}}")))
+        .isNull();
+    String withoutText = "\"timestamp\": \"1\", \"id\": \"m\", \"from\": \"5\"";
+    assertThat(read(message.formatted("{\"type\": \"reaction\", " + withoutText + "}"))).isNull();
+    assertThat(read(message.formatted("{\"type\": \"text\", " + withoutText + "}"))).isNull();
+    assertThat(read(STATUSES.replace("whatsapp_business_account", "page"))).isNull();
+    assertThat(read("{\"object\": \"whatsapp_business_account\", \"entry\": []}")).isNull();
+    assertThat(read("not json")).isNull();
+  }
+}
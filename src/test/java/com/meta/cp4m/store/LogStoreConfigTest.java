@@ -0,0 +1,117 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.meta.cp4m.configuration.ConfigurationUtils;
+import com.meta.cp4m.message.ConfigParamTestSpec;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Named;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+class LogStoreConfigTest {
+
+  private static final Collection<ConfigParamTestSpec<LogStoreConfig>> PARAMS =
+      List.of(
+          ConfigParamTestSpec.of(LogStoreConfig.class, "type")
+              .validValues("log")
+              .invalidValues("", "junk", "memory")
+              .required(true),
+          ConfigParamTestSpec.of(LogStoreConfig.class, "name")
+              .validValues("anything")
+              .invalidValues("", "  ")
+              .required(true)
+              .getter(LogStoreConfig::name),
+          ConfigParamTestSpec.of(LogStoreConfig.class, "path")
+              .validValues("/tmp/cp4m", "history")
+              .invalidValues("", "  ")
+              .required(true)
+              .getter(c -> c.path().toString()),
+          ConfigParamTestSpec.of(LogStoreConfig.class, "segment_size_mb")
+              .validValues(1, 1024)
+              .invalidValues(0, -1, 1025)
+              .required(false)
+              .getter(LogStoreConfig::segmentSizeMb),
+          ConfigParamTestSpec.of(LogStoreConfig.class, "max_cached_threads")
+              .validValues(0, 1, 100_000)
+              .invalidValues(-1)
+              .required(false)
+              .getter(LogStoreConfig::maxCachedThreads),
+          ConfigParamTestSpec.of(LogStoreConfig.class, "max_messages_per_thread")
+              .validValues(1, 100)
+              .invalidValues(0, -1)
+              .required(false)
+              .getter(LogStoreConfig::maxMessagesPerThread));
+
+  static Stream<Named<ConfigParamTestSpec<LogStoreConfig>>> required() {
+    return PARAMS.stream().filter(ConfigParamTestSpec::required).map(p -> Named.of(p.name(), p));
+  }
+
+  static Stream<Named<ConfigParamTestSpec<LogStoreConfig>>> params() {
+    return PARAMS.stream().map(p -> Named.of(p.name(), p));
+  }
+
+  ObjectNode minimalConfig() {
+    ObjectNode node = ConfigurationUtils.jsonMapper().createObjectNode();
+    PARAMS.stream()
+        .filter(ConfigParamTestSpec::required)
+        .forEach(p -> node.set(p.name(), p.validValues().stream().findAny().orElseThrow()));
+    return node;
+  }
+
+  @Test
+  void minimalValid() {
+    ConfigurationUtils.jsonMapper().convertValue(minimalConfig(), LogStoreConfig.class);
+  }
+
+  @ParameterizedTest
+  @MethodSource("params")
+  void allValid(ConfigParamTestSpec<LogStoreConfig> param) {
+    ObjectNode config = minimalConfig();
+    for (JsonNode validValue : param.validValues()) {
+      config.set(param.name(), validValue);
+      LogStoreConfig configObj =
+          ConfigurationUtils.jsonMapper().convertValue(config, LogStoreConfig.class);
+      if (!param.name().equals("type")) {
+        assertThat(validValue).isEqualTo(param.get(configObj));
+      }
+    }
+  }
+
+  @ParameterizedTest
+  @MethodSource("params")
+  void allInvalid(ConfigParamTestSpec<LogStoreConfig> param) {
+    JsonMapper mapper = ConfigurationUtils.jsonMapper();
+    ObjectNode config = minimalConfig();
+    for (JsonNode invalidValue : param.invalidValues()) {
+      config.set(param.name(), invalidValue);
+      assertThatThrownBy(() -> mapper.convertValue(config, LogStoreConfig.class))
+          .isInstanceOf(IllegalArgumentException.class);
+    }
+  }
+
+  @ParameterizedTest
+  @MethodSource("required")
+  void requiredTest(ConfigParamTestSpec<LogStoreConfig> param) {
+    ObjectNode config = minimalConfig();
+    config.remove(param.name());
+    assertThatThrownBy(
+            () -> ConfigurationUtils.jsonMapper().convertValue(config, LogStoreConfig.class))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
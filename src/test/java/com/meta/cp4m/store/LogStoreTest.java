@@ -0,0 +1,234 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.meta.cp4m.Identifier;
+import com.meta.cp4m.configuration.ConfigurationUtils;
+import com.meta.cp4m.message.*;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LogStoreTest {
+
+  private static final MessageFactory<WAMessage> FACTORY = MessageFactory.instance(WAMessage.class);
+
+  @TempDir Path dir;
+
+  private static WAMessage message(Identifier userId, String text) {
+    return FACTORY.newMessage(
+        Instant.now(), text, userId, Identifier.from(1), Identifier.random(), Message.Role.USER);
+  }
+
+  @Test
+  void addAndReopen() throws IOException {
+    Identifier user1 = Identifier.random();
+    Identifier user2 = Identifier.random();
+    WAMessage first = message(user1, "hi");
+    WAMessage second = message(user1, "a message that is\nlonger than the first one ☃");
+    WAMessage third = message(user2, "hello");
+
+    LogStoreConfig config = LogStoreConfig.of(dir);
+    try (LogStore<WAMessage> store = new LogStore<>(config)) {
+      assertThat(store.size()).isEqualTo(0);
+      assertThat(store.add(first).messages()).containsExactly(first);
+      assertThat(store.add(second).messages()).containsExactly(first, second);
+      assertThat(store.add(third).messages()).containsExactly(third);
+      assertThat(store.size()).isEqualTo(2);
+    }
+
+    try (LogStore<WAMessage> store = new LogStore<>(config)) {
+      assertThat(store.size()).isEqualTo(2);
+      assertThat(store.list())
+          .extracting(ThreadState::messages)
+          .containsExactlyInAnyOrder(List.of(first, second), List.of(third));
+      WAMessage fourth = message(user1, "still here?");
+      assertThat(store.add(fourth).messages()).containsExactly(first, second, fourth);
+    }
+  }
+
+  @Test
+  void uncachedThreadsAreReadFromTheLog() throws IOException {
+    Identifier user = Identifier.random();
+    LogStoreConfig config =
+        ConfigurationUtils.jsonMapper()
+            .convertValue(
+                Map.of(
+                    "type", "log", "name", "test", "path", dir.toString(), "max_cached_threads", 0),
+                LogStoreConfig.class);
+    try (LogStore<WAMessage> store = new LogStore<>(config)) {
+      List<WAMessage> messages = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        WAMessage message = message(user, "message " + i);
+        messages.add(message);
+        assertThat(store.add(message).messages()).isEqualTo(messages);
+      }
+      assertThat(store.list())
+          .singleElement()
+          .extracting(ThreadState::messages)
+          .isEqualTo(messages);
+    }
+  }
+
+  @Test
+  void onlyTheNewestMessagesAreKeptInMemory() throws IOException {
+    Identifier user = Identifier.random();
+    LogStoreConfig config =
+        ConfigurationUtils.jsonMapper()
+            .convertValue(
+                Map.of(
+                    "type",
+                    "log",
+                    "name",
+                    "test",
+                    "path",
+                    dir.toString(),
+                    "max_messages_per_thread",
+                    3),
+                LogStoreConfig.class);
+    List<WAMessage> messages = new ArrayList<>();
+    try (LogStore<WAMessage> store = new LogStore<>(config)) {
+      for (int i = 0; i < 10; i++) {
+        WAMessage message = message(user, "message " + i);
+        messages.add(message);
+        assertThat(store.add(message).messages())
+            .isEqualTo(messages.subList(Math.max(0, messages.size() - 3), messages.size()));
+      }
+    }
+    try (LogStore<WAMessage> store = new LogStore<>(config)) {
+      assertThat(store.list())
+          .singleElement()
+          .extracting(ThreadState::messages)
+          .isEqualTo(messages.subList(7, 10));
+    }
+  }
+
+  @Test
+  void tornWriteIsDiscarded() throws IOException {
+    Identifier user = Identifier.random();
+    WAMessage first = message(user, "hi");
+    LogStoreConfig config = LogStoreConfig.of(dir);
+    try (LogStore<WAMessage> store = new LogStore<>(config)) {
+      store.add(first);
+      store.add(message(user, "this message will be cut in half"));
+    }
+
+    Path segment;
+    try (Stream<Path> files = Files.list(dir)) {
+      segment = files.findFirst().orElseThrow();
+    }
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 5);
+    }
+
+    try (LogStore<WAMessage> store = new LogStore<>(config)) {
+      assertThat(store.list())
+          .singleElement()
+          .extracting(ThreadState::messages)
+          .isEqualTo(List.of(first));
+      WAMessage third = message(user, "after the crash");
+      assertThat(store.add(third).messages()).containsExactly(first, third);
+    }
+  }
+
+  @Test
+  void concurrentAddsAreAllKept() throws IOException {
+    List<Identifier> users = IntStream.range(0, 10).mapToObj(i -> Identifier.random()).toList();
+    // tiny segments so the log rolls over many times
+    LogStoreConfig config =
+        ConfigurationUtils.jsonMapper()
+            .convertValue(
+                Map.of(
+                    "type", "log", "name", "test", "path", dir.toString(), "segment_size_mb", 1),
+                LogStoreConfig.class);
+    try (LogStore<WAMessage> store = new LogStore<>(config);
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      List<CompletableFuture<?>> adds = new ArrayList<>();
+      for (int i = 0; i < 2_000; i++) {
+        Identifier user = users.get(i % users.size());
+        String text = "message " + i + " " + "x".repeat(1000);
+        adds.add(CompletableFuture.runAsync(() -> store.add(message(user, text)), executor));
+      }
+      CompletableFuture.allOf(adds.toArray(CompletableFuture[]::new)).join();
+      assertThat(store.list()).hasSize(10).allSatisfy(t -> assertThat(t.messages()).hasSize(200));
+    }
+    try (Stream<Path> files = Files.list(dir)) {
+      assertThat(files.count()).isGreaterThan(1);
+    }
+    try (LogStore<WAMessage> store = new LogStore<>(config)) {
+      assertThat(store.list()).hasSize(10).allSatisfy(t -> assertThat(t.messages()).hasSize(200));
+    }
+  }
+
+  @Test
+  void recordsAcrossMappedWindowsAreRead() throws IOException {
+    Identifier user = Identifier.random();
+    LogStoreConfig config =
+        ConfigurationUtils.jsonMapper()
+            .convertValue(
+                Map.of(
+                    "type",
+                    "log",
+                    "name",
+                    "test",
+                    "path",
+                    dir.toString(),
+                    "max_cached_threads",
+                    0,
+                    "max_messages_per_thread",
+                    1_000),
+                LogStoreConfig.class);
+    List<WAMessage> messages = new ArrayList<>();
+    // about 10MB in one segment, enough to fill two windows with records that straddle them
+    try (LogStore<WAMessage> store = new LogStore<>(config)) {
+      for (int i = 0; i < 100; i++) {
+        WAMessage message = message(user, i + " " + "x".repeat(100_000 + i));
+        messages.add(message);
+        assertThat(store.add(message).tail()).isEqualTo(message);
+      }
+      assertThat(store.list()).singleElement().extracting(ThreadState::messages).isEqualTo(messages);
+    }
+    try (LogStore<WAMessage> store = new LogStore<>(config)) {
+      assertThat(store.list()).singleElement().extracting(ThreadState::messages).isEqualTo(messages);
+    }
+  }
+
+  @Test
+  void listReadsThreadsAsTheyAreReached() throws IOException {
+    LogStoreConfig config = LogStoreConfig.of(dir);
+    try (LogStore<WAMessage> store = new LogStore<>(config)) {
+      WAMessage first = message(Identifier.random(), "first");
+      store.add(first);
+      List<ThreadState<WAMessage>> threads = store.list();
+      // threads added after the call are not part of it, messages added to listed threads are
+      store.add(message(Identifier.random(), "second"));
+      WAMessage reply = message(first.senderId(), "reply");
+      store.add(reply);
+      assertThat(threads)
+          .singleElement()
+          .extracting(ThreadState::messages)
+          .isEqualTo(List.of(first, reply));
+    }
+  }
+}
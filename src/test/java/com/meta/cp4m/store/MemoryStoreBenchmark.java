@@ -0,0 +1,160 @@
+/*
+ *
+ * Copyright (c) Meta Platforms, Inc. and affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.meta.cp4m.store;
+
+import com.meta.cp4m.Identifier;
+import com.meta.cp4m.configuration.ConfigurationUtils;
+import com.meta.cp4m.message.FBMessage;
+import com.meta.cp4m.message.Message;
+import com.meta.cp4m.message.MessageFactory;
+import com.meta.cp4m.message.ThreadState;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The path every message takes into a {@link MemoryStore}: the message is created the way the
+ * handlers create it and added to its conversation. Conversations are capped so that the benchmark
+ * reaches a steady state. {@link #append} leaves out the store to show the cost of the conversation
+ * itself.
+ *
+ * <p>{@link #threadIdCached} and {@link #threadIdDerived} compare the thread id work of that path
+ * with the way it was done before messages kept their thread id: the store keys the conversation by
+ * it and the conversation checks the message against its last one. The baseline message type cannot
+ * go into a store since it has no {@link MessageFactory}, so only the thread id work is measured.
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark="MemoryStoreBenchmark"
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MemoryStoreBenchmark {
+
+  private static final int CONVERSATIONS = 1_000;
+  private static final int MAX_MESSAGES_PER_THREAD = 50;
+
+  private final MessageFactory<FBMessage> factory = MessageFactory.instance(FBMessage.class);
+  private final Identifier bot = Identifier.from(1234567890L);
+  private final Identifier[] users = new Identifier[CONVERSATIONS];
+  private final AtomicLong instanceIds = new AtomicLong();
+  private final Map<Identifier, Message> tails = new ConcurrentHashMap<>();
+  private MemoryStore<FBMessage> store;
+
+  @Setup
+  public void setup() {
+    store =
+        new MemoryStore<>(
+            ConfigurationUtils.jsonMapper()
+                .convertValue(
+                    Map.of(
+                        "type", "memory",
+                        "name", "benchmark",
+                        "storage_duration_hours", 1,
+                        "storage_capacity_mbs", 1024,
+                        "max_messages_per_thread", MAX_MESSAGES_PER_THREAD),
+                    MemoryStoreConfig.class));
+    for (int i = 0; i < users.length; i++) {
+      users[i] = Identifier.from(100_000_000_000_000L + i);
+      tails.put(Message.threadId(users[i], bot), newMessage(users[i]));
+    }
+  }
+
+  private Identifier randomUser() {
+    return users[ThreadLocalRandom.current().nextInt(users.length)];
+  }
+
+  private FBMessage newMessage(Identifier user) {
+    return factory.newMessage(
+        Instant.now(),
+        "hi",
+        user,
+        bot,
+        Identifier.from(instanceIds.incrementAndGet()),
+        Message.Role.USER);
+  }
+
+  @Benchmark
+  public ThreadState<FBMessage> add() {
+    return store.add(newMessage(randomUser()));
+  }
+
+  @Benchmark
+  public boolean threadIdCached() {
+    return route(newMessage(randomUser()));
+  }
+
+  @Benchmark
+  public boolean threadIdDerived() {
+    return route(
+        new DerivedThreadIdMessage(
+            Instant.now(),
+            Identifier.from(instanceIds.incrementAndGet()),
+            randomUser(),
+            bot,
+            "hi",
+            Message.Role.USER));
+  }
+
+  /** the thread id lookups {@link MemoryStore#add} and {@link ThreadState#with} make */
+  private boolean route(Message message) {
+    Message tail = tails.put(message.threadId(), message);
+    return tail != null && tail.threadId().equals(message.threadId());
+  }
+
+  @Benchmark
+  public ThreadState<FBMessage> append(Conversation conversation) {
+    conversation.thread =
+        conversation.thread.with(newMessage(users[0])).retainLast(MAX_MESSAGES_PER_THREAD);
+    return conversation.thread;
+  }
+
+  /** a message that works out its thread id on every call, as messages did before */
+  record DerivedThreadIdMessage(
+      Instant timestamp,
+      Identifier instanceId,
+      Identifier senderId,
+      Identifier recipientId,
+      String message,
+      Role role)
+      implements Message {
+
+    @Override
+    public Identifier threadId() {
+      return Message.threadId(senderId, recipientId);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Conversation {
+    private ThreadState<FBMessage> thread;
+
+    @Setup
+    public void setup(MemoryStoreBenchmark benchmark) {
+      thread = ThreadState.of(benchmark.newMessage(benchmark.users[0]));
+    }
+  }
+}
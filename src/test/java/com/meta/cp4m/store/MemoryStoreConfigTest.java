@@ -46,7 +46,12 @@ class MemoryStoreConfigTest {
               .validValues(1, 100)
               .invalidValues(0, -1)
               .required(true)
-              .getter(MemoryStoreConfig::storageCapacityMb));
+              .getter(MemoryStoreConfig::storageCapacityMb),
+          ConfigParamTestSpec.of(MemoryStoreConfig.class, "max_messages_per_thread")
+              .validValues(1, 100)
+              .invalidValues(0, -1)
+              .required(false)
+              .getter(MemoryStoreConfig::maxMessagesPerThread));
 
   static Stream<Named<ConfigParamTestSpec<MemoryStoreConfig>>> required() {
     return PARAMS.stream().filter(ConfigParamTestSpec::required).map(p -> Named.of(p.name(), p));
@@ -189,4 +189,32 @@ class ThreadStateTest {
                         Message.Role.SYSTEM)))
         .isInstanceOf(IllegalArgumentException.class);
   }
+
+  @Test
+  void retainLast() {
+    Instant start = Instant.now();
+    FBMessage message1 =
+        FACTORY.newMessage(
+            start,
+            "sample message",
+            Identifier.random(),
+            Identifier.random(),
+            Identifier.random(),
+            Message.Role.USER);
+    ThreadState<FBMessage> ms = ThreadState.of(message1);
+    assertThat(ms.retainLast(1)).isSameAs(ms);
+
+    FBMessage message2 = ms.newMessageFromBot(start.plusSeconds(1), "response");
+    FBMessage message3 =
+        ms.newMessageFromUser(start.plusSeconds(2), "another message", Identifier.random());
+    ThreadState<FBMessage> full = ms.with(message2).with(message3);
+    ThreadState<FBMessage> windowed = full.retainLast(2);
+    assertThat(windowed.messages()).containsExactly(message2, message3);
+    assertThat(full.messages()).containsExactly(message1, message2, message3);
+    assertThat(windowed.userId()).isEqualTo(full.userId());
+    assertThat(windowed.botId()).isEqualTo(full.botId());
+
+    FBMessage late = ms.newMessageFromBot(start.plusMillis(1500), "late response");
+    assertThat(windowed.with(late).retainLast(2).messages()).containsExactly(late, message3);
+  }
 }